@@ -0,0 +1,143 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/** Measures deduplication and ingestion throughput of chunked Blobs. **
+ *
+ *  Builds a large random binary file and a series of versions of it, as
+ *  an editor of large files would leave them: bytes overwritten in place,
+ *  bytes inserted in the middle, a range deleted and bytes appended, plus
+ *  a copy of the last version under another name. Every file is saved
+ *  through ObjectStore.putBlob into a fresh store, once saving each Blob
+ *  whole and once split into chunks, and the bytes stored, the dedup
+ *  ratio (bytes ingested over bytes stored) and the ingestion throughput
+ *  are reported for each. Chunked contents are read back and compared.
+ *
+ *  Usage: java gitlet.ChunkingBenchmark [size MiB] [seed]
+ *
+ *  @author Maxim Kirby
+ */
+public class ChunkingBenchmark {
+
+    /** Default size of the first version, in MiB. */
+    private static final int DEFAULT_SIZE_MIB = 32;
+
+    public static void main(String[] args) throws IOException {
+        int sizeMib = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SIZE_MIB;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+        Path dir = Files.createTempDirectory("gitlet-chunking");
+        try {
+            File[] inputs = writeVersions(dir.resolve("input"), sizeMib * 1024 * 1024,
+                                          new Random(seed));
+            long inputBytes = 0;
+            for (File input : inputs) {
+                inputBytes += input.length();
+            }
+            System.out.printf("%-8s %8s %12s %12s %8s %10s%n", "mode", "files", "input B",
+                              "stored B", "dedup", "MB/s");
+            ingest("whole", dir.resolve("whole"), inputs, inputBytes, Long.MAX_VALUE);
+            ingest("chunked", dir.resolve("chunked"), inputs, inputBytes, 0);
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    /** Saves every file in INPUTS, of INPUTBYTES bytes in all, into a new
+     * store in DIR that chunks files of at least THRESHOLD bytes, and
+     * prints a row of results labelled MODE. */
+    private static void ingest(String mode, Path dir, File[] inputs, long inputBytes,
+                               long threshold) throws IOException {
+        File root = dir.toFile();
+        File chunks = new File(root, "chunks");
+        ObjectStore objects = new ObjectStore(new File(root, "commits"), new File(root, "trees"),
+                                              new File(root, "blobs"), chunks,
+                                              new File(root, "packs"));
+        new File(root, "blobs").mkdirs();
+        objects.setChunkThreshold(threshold);
+
+        long start = System.nanoTime();
+        String[] ids = new String[inputs.length];
+        for (int i = 0; i < inputs.length; i += 1) {
+            ids[i] = objects.putBlob(inputs[i], inputs[i].getName()).getId();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        // Check that every Blob reads back as it was
+        for (int i = 0; i < inputs.length; i += 1) {
+            if (!Arrays.equals(objects.readBlob(ids[i]), Files.readAllBytes(inputs[i].toPath()))) {
+                throw new IllegalStateException("Blob " + ids[i] + " read back differently.");
+            }
+        }
+
+        long stored = treeSize(dir);
+        System.out.printf("%-8s %8d %12d %12d %8.2f %10.1f%n", mode, inputs.length, inputBytes,
+                          stored, (double) inputBytes / stored, inputBytes / 1e6 / seconds);
+    }
+
+    /** Writes a random file of SIZE bytes and edited versions of it to DIR
+     * using RANDOM, and returns them in order. */
+    private static File[] writeVersions(Path dir, int size, Random random) throws IOException {
+        Files.createDirectories(dir);
+        byte[] v1 = new byte[size];
+        random.nextBytes(v1);
+
+        // Overwrite a few short ranges in place
+        byte[] v2 = v1.clone();
+        for (int i = 0; i < 8; i += 1) {
+            int at = random.nextInt(size - 64);
+            for (int j = 0; j < 64; j += 1) {
+                v2[at + j] = (byte) random.nextInt();
+            }
+        }
+
+        // Insert bytes in the middle, shifting everything after them
+        byte[] inserted = new byte[4096];
+        random.nextBytes(inserted);
+        byte[] v3 = splice(v2, size / 2, 0, inserted);
+
+        // Delete a range, then append to the end
+        byte[] v4 = splice(v3, size / 4, 100_000, new byte[0]);
+        byte[] tail = new byte[size / 64];
+        random.nextBytes(tail);
+        v4 = splice(v4, v4.length, 0, tail);
+
+        byte[][] versions = {v1, v2, v3, v4, v4};
+        File[] files = new File[versions.length];
+        for (int i = 0; i < versions.length; i += 1) {
+            files[i] = dir.resolve(i < 4 ? "data-v" + (i + 1) + ".bin" : "copy.bin").toFile();
+            Files.write(files[i].toPath(), versions[i]);
+        }
+        return files;
+    }
+
+    /** Returns DATA with REMOVED bytes from AT replaced by INSERTED. */
+    private static byte[] splice(byte[] data, int at, int removed, byte[] inserted) {
+        byte[] result = new byte[data.length - removed + inserted.length];
+        System.arraycopy(data, 0, result, 0, at);
+        System.arraycopy(inserted, 0, result, at, inserted.length);
+        System.arraycopy(data, at + removed, result, at + inserted.length,
+                         data.length - at - removed);
+        return result;
+    }
+
+    /** Returns the total size of the regular files below DIR. */
+    private static long treeSize(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            return paths.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+
+    /** Deletes DIR and everything below it. */
+    private static void deleteTree(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
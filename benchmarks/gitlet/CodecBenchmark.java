@@ -0,0 +1,172 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import static gitlet.Utils.*;
+
+/** Compares the binary encoding of Commits with Java serialization. **
+ *
+ *  For Commits tracking a range of file counts, times encoding and
+ *  decoding a Commit and its Trees through encode and decode against
+ *  writing and reading an equivalent Serializable object, listing every
+ *  file, through Utils.serialize and an ObjectInputStream, the path
+ *  Commits were saved with before. Reports the size of each form, and
+ *  the bytes a following Commit changing one file adds in binary form,
+ *  where only the Trees along the changed path are new.
+ *
+ *  Usage: java gitlet.CodecBenchmark [iterations]
+ *
+ *  @author Maxim Kirby
+ */
+public class CodecBenchmark {
+
+    /** File counts of the Commits measured. */
+    private static final int[] FILE_COUNTS = {1, 10, 100, 1000, 10000};
+
+    /** Total number of files encoded per measurement, spread over iterations. */
+    private static final int DEFAULT_WORK = 2_000_000;
+
+    /** Sink for results, so the JIT cannot drop the measured work. */
+    private static long sink;
+
+    public static void main(String[] args) {
+        int work = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_WORK;
+        System.out.printf("%8s %10s %10s %10s %12s %12s %12s %12s%n", "files", "java B",
+                          "binary B", "change B", "java enc us", "bin enc us", "java dec us",
+                          "bin dec us");
+        for (int files : FILE_COUNTS) {
+            TreeMap<String, String> tracked = sampleFiles(files);
+            List<Tree> trees = new ArrayList<>();
+            Commit commit = sampleCommit(tracked, trees);
+            LegacyCommit legacy = new LegacyCommit(commit, tracked);
+            byte[] javaBytes = serialize(legacy);
+            List<byte[]> binary = encodeAll(commit, trees);
+            int binarySize = binary.stream().mapToInt(b -> b.length).sum();
+            int iterations = Math.max(10, work / files);
+
+            // A second commit changing one file shares every other Tree
+            tracked.put(tracked.firstKey(), sha1("changed blob"));
+            List<Tree> changedTrees = new ArrayList<>();
+            Commit changed = sampleCommit(tracked, changedTrees);
+            changedTrees.removeIf(tree -> trees.stream().anyMatch(t -> t.getId().equals(tree.getId())));
+            int changeSize = encodeAll(changed, changedTrees).stream().mapToInt(b -> b.length).sum();
+
+            // Warm up both paths before timing them
+            measure(() -> serialize(legacy).length, iterations);
+            measure(() -> encodeAll(commit, trees).size(), iterations);
+            measure(() -> readLegacy(javaBytes).files.size(), iterations);
+            measure(() -> decodeAll(binary, trees), iterations);
+
+            System.out.printf("%8d %10d %10d %10d %12.2f %12.2f %12.2f %12.2f%n", files,
+                              javaBytes.length, binarySize, changeSize,
+                              measure(() -> serialize(legacy).length, iterations),
+                              measure(() -> encodeAll(commit, trees).size(), iterations),
+                              measure(() -> readLegacy(javaBytes).files.size(), iterations),
+                              measure(() -> decodeAll(binary, trees), iterations));
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    /** Returns the average time of one run of TASK, in microseconds. */
+    private static double measure(Task task, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i += 1) {
+            sink += task.run();
+        }
+        return (System.nanoTime() - start) / 1e3 / iterations;
+    }
+
+    /** Returns FILES paths, spread over 37 directories, with distinct Blob IDs. */
+    private static TreeMap<String, String> sampleFiles(int files) {
+        TreeMap<String, String> tracked = new TreeMap<>();
+        for (int i = 0; i < files; i += 1) {
+            tracked.put("src/module" + (i % 37) + "/File" + i + ".java", sha1("blob " + i));
+        }
+        return tracked;
+    }
+
+    /** Returns a Commit of the files in TRACKED, adding its Trees to TREES. */
+    private static Commit sampleCommit(TreeMap<String, String> tracked, List<Tree> trees) {
+        // Every sample path is src/<module>/<file>, so build module Trees first
+        TreeMap<String, TreeMap<String, String>> modules = new TreeMap<>();
+        for (Map.Entry<String, String> file : tracked.entrySet()) {
+            String[] parts = file.getKey().split("/");
+            modules.computeIfAbsent(parts[1], k -> new TreeMap<>()).put(parts[2], file.getValue());
+        }
+        TreeMap<String, String> src = new TreeMap<>();
+        for (Map.Entry<String, TreeMap<String, String>> module : modules.entrySet()) {
+            Tree tree = new Tree(module.getValue(), new TreeMap<>());
+            trees.add(tree);
+            src.put(module.getKey(), tree.getId());
+        }
+        Tree srcTree = new Tree(new TreeMap<>(), src);
+        trees.add(srcTree);
+        TreeMap<String, String> rootEntries = new TreeMap<>();
+        rootEntries.put("src", srcTree.getId());
+        Tree root = new Tree(new TreeMap<>(), rootEntries);
+        trees.add(root);
+
+        Commit commit = new Commit("Benchmark commit", sha1("parent"), root.getId());
+        commit.setOtherParent(sha1("other parent"));
+        return commit;
+    }
+
+    /** Returns the encodings of COMMIT and TREES. */
+    private static List<byte[]> encodeAll(Commit commit, List<Tree> trees) {
+        List<byte[]> result = new ArrayList<>(trees.size() + 1);
+        result.add(commit.encode());
+        for (Tree tree : trees) {
+            result.add(tree.encode());
+        }
+        return result;
+    }
+
+    /** Decodes the Commit and TREES encoded in BINARY, returning the
+     * number of files in the Trees. */
+    private static long decodeAll(List<byte[]> binary, List<Tree> trees) {
+        long files = Commit.decode(binary.get(0)).getTree().length();
+        for (int i = 1; i < binary.size(); i += 1) {
+            files += Tree.decode(trees.get(i - 1).getId(), binary.get(i)).getFiles().size();
+        }
+        return files;
+    }
+
+    /** Returns the LegacyCommit serialized in BYTES. */
+    private static LegacyCommit readLegacy(byte[] bytes) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (LegacyCommit) in.readObject();
+        } catch (IOException | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** A unit of measured work returning a value to accumulate. */
+    private interface Task {
+        long run();
+    }
+
+    /** The fields of a Commit as they were saved with Java serialization. */
+    private static class LegacyCommit implements Serializable {
+        private final String id;
+        private final String message;
+        private final String timestamp;
+        private final String[] parents;
+        private final TreeMap<String, String> files;
+
+        LegacyCommit(Commit commit, TreeMap<String, String> tracked) {
+            id = commit.getId();
+            message = commit.getMessage();
+            timestamp = commit.getTimestamp();
+            parents = commit.getParents().clone();
+            files = new TreeMap<>(tracked);
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import static gitlet.Utils.*;
+
+/** Replays gitlet commands against a repository and reports latency. **
+ *
+ *  Commands are run one at a time through Main.run in this process, each
+ *  loading the repository from disk exactly as a fresh gitlet process
+ *  would, so the numbers cover everything but JVM startup. They come
+ *  either from a script, one command per line, or from a random mix of
+ *  command kinds weighted as given. Work that only prepares a command
+ *  (editing files before add, staging before commit, making a branch to
+ *  merge) is done outside the measurement.
+ *
+ *  For each kind of command the driver reports the median, 99th
+ *  percentile and maximum latency, the mean bytes read and written
+ *  (from /proc/self/io, where available) and the largest peak heap use.
+ *
+ *  Usage: java gitlet.LatencyDriver DIR [--ops N] [--mix KIND=WEIGHT,...]
+ *         [--script FILE] [--warmup N] [--seed S] [--no-gc]
+ *
+ *  KIND is status, log, global-log, find, add, commit, checkout, reset
+ *  or merge.
+ *
+ *  @author Maxim Kirby
+ */
+public class LatencyDriver {
+
+    /** Command mix used when none is given. */
+    private static final String DEFAULT_MIX =
+        "status=30,add=20,commit=15,log=10,find=10,checkout=8,reset=4,merge=3";
+
+    /** Random source of commands and edits. */
+    private final Random random;
+
+    /** True if the heap is collected before every measured command. */
+    private final boolean collect;
+
+    /** Files tracked in the working directory, branch names, and the IDs
+     * and messages of all commits. */
+    private final List<String> files;
+    private final List<String> branches = new ArrayList<>();
+    private final List<String> commitIds = new ArrayList<>();
+    private final List<String> messages = new ArrayList<>();
+
+    /** Name of the current branch. */
+    private String currBranch;
+
+    /** Number of commands prepared so far, used to name new branches. */
+    private int prepared;
+
+    /** Measurements per kind of command, in order of first use. */
+    private final Map<String, List<long[]>> samples = new LinkedHashMap<>();
+
+    /** Indexes of the values in a measurement. */
+    private static final int NANOS = 0;
+    private static final int READ = 1;
+    private static final int WRITTEN = 2;
+    private static final int HEAP = 3;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            usage();
+        }
+        int ops = 1000;
+        int warmup = 50;
+        String mix = DEFAULT_MIX;
+        String script = null;
+        long seed = 61;
+        boolean collect = true;
+        int i = 1;
+        while (i < args.length) {
+            switch (args[i]) {
+                case "--ops":
+                    ops = Integer.parseInt(args[++i]);
+                    break;
+                case "--mix":
+                    mix = args[++i];
+                    break;
+                case "--script":
+                    script = args[++i];
+                    break;
+                case "--warmup":
+                    warmup = Integer.parseInt(args[++i]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "--no-gc":
+                    collect = false;
+                    break;
+                default:
+                    usage();
+            }
+            i += 1;
+        }
+
+        // Repository.CWD is fixed on first use, so point it at DIR first
+        File dir = new File(args[0]).getAbsoluteFile();
+        System.setProperty("user.dir", dir.getPath());
+        if (!Repository.GITLET_DIR.isDirectory()) {
+            System.out.println("No gitlet repository in " + dir + ".");
+            System.exit(1);
+        }
+
+        LatencyDriver driver = new LatencyDriver(seed, collect);
+        List<String[]> commands = script == null ? null : readScript(script);
+        if (commands != null) {
+            driver.replay(commands, warmup, ops);
+        } else {
+            driver.replayMix(parseMix(mix), warmup, ops);
+        }
+        driver.report();
+    }
+
+    /** A driver for the repository in the current working directory. */
+    LatencyDriver(long seed, boolean collect) throws IOException {
+        random = new Random(seed);
+        this.collect = collect;
+        try (Stream<Path> paths = Files.walk(Repository.CWD.toPath())) {
+            files = paths.filter(Files::isRegularFile)
+                         .map(p -> Repository.CWD.toPath().relativize(p).toString())
+                         .filter(name -> !name.startsWith(".gitlet"))
+                         .sorted()
+                         .collect(Collectors.toList());
+        }
+        readBranches();
+        for (String line : capture("global-log", "--oneline").split("\n")) {
+            if (line.length() > 8) {
+                commitIds.add(line.substring(0, 7));
+                messages.add(line.substring(8));
+            }
+        }
+    }
+
+    /***************************************************************************************************
+     REPLAYING COMMANDS */
+
+    /** Runs the first WARMUP of COMMANDS unmeasured, then measures up to
+     * OPS commands, cycling through COMMANDS as needed. */
+    void replay(List<String[]> commands, int warmup, int ops) {
+        for (int i = 0; i < warmup + ops; i += 1) {
+            String[] command = commands.get(i % commands.size());
+            measure(command[0], command, i >= warmup);
+        }
+    }
+
+    /** Runs WARMUP unmeasured and then OPS measured commands drawn at
+     * random from the kinds in MIX, weighted by their values. */
+    void replayMix(Map<String, Integer> mix, int warmup, int ops) {
+        int total = mix.values().stream().mapToInt(Integer::intValue).sum();
+        for (int i = 0; i < warmup + ops; i += 1) {
+            int pick = random.nextInt(total);
+            for (Map.Entry<String, Integer> kind : mix.entrySet()) {
+                pick -= kind.getValue();
+                if (pick < 0) {
+                    measure(kind.getKey(), prepare(kind.getKey()), i >= warmup);
+                    break;
+                }
+            }
+        }
+    }
+
+    /** Does the unmeasured work before a command of the given KIND and
+     * returns its arguments. */
+    private String[] prepare(String kind) {
+        prepared += 1;
+        switch (kind) {
+            case "status":
+            case "log":
+            case "global-log":
+                return new String[] {kind};
+            case "find":
+                return new String[] {"find", pick(messages)};
+            case "add":
+                return addArgs(editFiles());
+            case "commit":
+                quietly(addArgs(editFiles()));
+                return new String[] {"commit", "latency commit " + prepared};
+            case "checkout":
+                String target = pick(branches);
+                return new String[] {"checkout", target};
+            case "reset":
+                return new String[] {"reset", pick(commitIds)};
+            case "merge":
+                String name = "latency-merge-" + prepared;
+                quietly("branch", name);
+                quietly("checkout", name);
+                quietly(addArgs(editFiles()));
+                quietly("commit", "changes to merge " + prepared);
+                quietly("checkout", currBranch);
+                quietly(addArgs(editFiles()));
+                quietly("commit", "changes on " + currBranch + " " + prepared);
+                return new String[] {"merge", name};
+            default:
+                throw error("Unknown command kind %s.", kind);
+        }
+    }
+
+    /** Runs ARGS through Main, recording its latency, I/O and peak heap
+     * under KIND if RECORD. */
+    private void measure(String kind, String[] args, boolean record) {
+        if (collect) {
+            System.gc();
+        }
+        List<MemoryPoolMXBean> heap = heapPools();
+        for (MemoryPoolMXBean pool : heap) {
+            pool.resetPeakUsage();
+        }
+        long[] io = procIo();
+
+        long start = System.nanoTime();
+        String output = capture(args);
+        long nanos = System.nanoTime() - start;
+
+        long[] ioAfter = procIo();
+        long peak = 0;
+        for (MemoryPoolMXBean pool : heap) {
+            peak += pool.getPeakUsage().getUsed();
+        }
+        afterCommand(args, output);
+        if (record) {
+            samples.computeIfAbsent(kind, k -> new ArrayList<>()).add(new long[] {
+                nanos, ioAfter[0] - io[0], ioAfter[1] - io[1], peak,
+            });
+        }
+    }
+
+    /** Keeps track of branches and commits changed by the command ARGS. */
+    private void afterCommand(String[] args, String output) {
+        switch (args[0]) {
+            case "checkout":
+                if (args.length == 2 && !output.contains("exist")) {
+                    currBranch = args[1];
+                }
+                break;
+            case "branch":
+            case "merge":
+            case "commit":
+                readBranches();
+                break;
+            default:
+                break;
+        }
+        if (args[0].equals("commit") || args[0].equals("merge")) {
+            String head = capture("log", "--oneline", "-n", "1");
+            if (head.length() > 8) {
+                commitIds.add(head.substring(0, 7));
+                messages.add(head.substring(8).trim());
+            }
+        }
+    }
+
+    /***************************************************************************************************
+     REPORTING */
+
+    /** Prints latency, I/O and heap statistics for each kind of command. */
+    void report() {
+        System.out.printf("%-12s %7s %10s %10s %10s %11s %11s %13s%n", "command", "count",
+                          "p50 ms", "p99 ms", "max ms", "read KB", "written KB", "peak heap MB");
+        for (Map.Entry<String, List<long[]>> kind : samples.entrySet()) {
+            List<long[]> runs = kind.getValue();
+            long[] nanos = runs.stream().mapToLong(r -> r[NANOS]).sorted().toArray();
+            System.out.printf("%-12s %7d %10.2f %10.2f %10.2f %11.1f %11.1f %13.1f%n",
+                              kind.getKey(), runs.size(),
+                              percentile(nanos, 0.50) / 1e6, percentile(nanos, 0.99) / 1e6,
+                              nanos[nanos.length - 1] / 1e6,
+                              runs.stream().mapToLong(r -> r[READ]).average().orElse(0) / 1024,
+                              runs.stream().mapToLong(r -> r[WRITTEN]).average().orElse(0) / 1024,
+                              runs.stream().mapToLong(r -> r[HEAP]).max().orElse(0) / 1048576.0);
+        }
+    }
+
+    /** Returns the value at fraction P of the sorted VALUES. */
+    private static long percentile(long[] values, double p) {
+        int index = (int) Math.ceil(p * values.length) - 1;
+        return values[Math.max(0, Math.min(values.length - 1, index))];
+    }
+
+    /***************************************************************************************************
+     HELPER METHODS */
+
+    /** Runs ARGS through Main and returns its output, including the
+     * message of any error. */
+    private static String capture(String... args) {
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(buffer, false, StandardCharsets.UTF_8));
+        try {
+            Main.run(args, null);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        } finally {
+            System.out.flush();
+            System.setOut(stdout);
+        }
+        return buffer.toString(StandardCharsets.UTF_8);
+    }
+
+    /** Runs ARGS through Main, discarding its output. */
+    private static void quietly(String... args) {
+        capture(args);
+    }
+
+    /** Appends a line to a few random tracked files and returns their names. */
+    private List<String> editFiles() {
+        List<String> edited = new ArrayList<>();
+        int count = 1 + random.nextInt(Math.max(1, Math.min(files.size(), 20)));
+        for (int i = 0; i < count && !files.isEmpty(); i += 1) {
+            String name = pick(files);
+            File file = join(Repository.CWD, name);
+            try {
+                byte[] edit = ("edit " + prepared + "\n").getBytes(StandardCharsets.UTF_8);
+                Files.write(file.toPath(), edit, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            edited.add(name);
+        }
+        return edited;
+    }
+
+    /** Returns the arguments of an add of NAMES. */
+    private static String[] addArgs(List<String> names) {
+        String[] args = new String[names.size() + 1];
+        args[0] = "add";
+        for (int i = 0; i < names.size(); i += 1) {
+            args[i + 1] = names.get(i);
+        }
+        return args;
+    }
+
+    /** Reads branch names and the current branch from status. */
+    private void readBranches() {
+        branches.clear();
+        boolean inBranches = false;
+        for (String line : capture("status").split("\n")) {
+            if (line.equals("=== Branches ===")) {
+                inBranches = true;
+            } else if (line.isEmpty()) {
+                inBranches = false;
+            } else if (inBranches) {
+                if (line.startsWith("*")) {
+                    currBranch = line.substring(1);
+                    branches.add(currBranch);
+                } else {
+                    branches.add(line);
+                }
+            }
+        }
+    }
+
+    /** Returns a random element of LIST. */
+    private String pick(List<String> list) {
+        return list.get(random.nextInt(list.size()));
+    }
+
+    /** Returns the heap memory pools. */
+    private static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pools.add(pool);
+            }
+        }
+        return pools;
+    }
+
+    /** Returns the bytes read and written by this process so far, or
+     * zeros where /proc/self/io is unavailable. */
+    private static long[] procIo() {
+        long[] result = new long[2];
+        File io = new File("/proc/self/io");
+        if (!io.canRead()) {
+            return result;
+        }
+        for (String line : readContentsAsString(io).split("\n")) {
+            if (line.startsWith("rchar:")) {
+                result[0] = Long.parseLong(line.substring(6).trim());
+            } else if (line.startsWith("wchar:")) {
+                result[1] = Long.parseLong(line.substring(6).trim());
+            }
+        }
+        return result;
+    }
+
+    /** Returns the commands in the script FILE, one per non-blank line,
+     * split on whitespace. Lines starting with # are skipped. */
+    private static List<String[]> readScript(String file) {
+        List<String[]> commands = new ArrayList<>();
+        for (String line : readContentsAsString(new File(file)).split("\n")) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                commands.add(line.split("\\s+"));
+            }
+        }
+        return commands;
+    }
+
+    /** Returns the weights of the command kinds written as
+     * KIND=WEIGHT,... in SPEC. */
+    private static Map<String, Integer> parseMix(String spec) {
+        Map<String, Integer> mix = new LinkedHashMap<>();
+        for (String part : spec.split(",")) {
+            String[] kv = part.split("=");
+            mix.put(kv[0], Integer.parseInt(kv[1]));
+        }
+        return mix;
+    }
+
+    /** Prints usage and exits. */
+    private static void usage() {
+        System.out.println("Usage: java gitlet.LatencyDriver DIR [--ops N] [--mix KIND=WEIGHT,...]"
+                           + " [--script FILE] [--warmup N] [--seed S] [--no-gc]");
+        System.exit(1);
+    }
+}
@@ -0,0 +1,77 @@
+package gitlet;
+
+import java.io.File;
+
+/** Generates large synthetic gitlet repositories. **
+ *
+ *  Builds a SyntheticRepository in a target directory through the real
+ *  Repository API, so the result has exactly the layout gitlet itself
+ *  writes and can be used with any gitlet command or with LatencyDriver.
+ *
+ *  Usage: java gitlet.RepoGenerator DIR [--files N] [--commits M]
+ *         [--branches B] [--churn FRACTION] [--sizes KIND:MIN[:MAX]]
+ *         [--seed S]
+ *
+ *  KIND is fixed, uniform or pareto. DIR must not hold a repository yet.
+ *
+ *  @author Maxim Kirby
+ */
+public class RepoGenerator {
+
+    public static void main(String[] args) {
+        if (args.length == 0 || args.length % 2 == 0) {
+            usage();
+        }
+        int files = 1000;
+        int commits = 100;
+        int branches = 4;
+        double churn = SyntheticRepository.DEFAULT_CHURN;
+        String sizes = "pareto:1024:1048576";
+        long seed = 61;
+        for (int i = 1; i < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--files":
+                    files = Integer.parseInt(value);
+                    break;
+                case "--commits":
+                    commits = Integer.parseInt(value);
+                    break;
+                case "--branches":
+                    branches = Integer.parseInt(value);
+                    break;
+                case "--churn":
+                    churn = Double.parseDouble(value);
+                    break;
+                case "--sizes":
+                    sizes = value;
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(value);
+                    break;
+                default:
+                    usage();
+            }
+        }
+
+        // Repository.CWD is fixed on first use, so point it at DIR first
+        File dir = new File(args[0]).getAbsoluteFile();
+        dir.mkdirs();
+        System.setProperty("user.dir", dir.getPath());
+
+        long start = System.nanoTime();
+        SyntheticRepository repo = new SyntheticRepository(
+                files, SyntheticRepository.Sizes.parse(sizes), churn, commits, branches, seed);
+        System.out.printf("Generated %d files, %d commits on master and %d branches in %s"
+                          + " (%.1f s).%n", repo.files().size(), repo.history().size(),
+                          repo.branchNames().size() + 1, dir, (System.nanoTime() - start) / 1e9);
+    }
+
+    /** Prints usage and exits. */
+    private static void usage() {
+        System.out.println("Usage: java gitlet.RepoGenerator DIR [--files N] [--commits M]"
+                           + " [--branches B] [--churn FRACTION] [--sizes KIND:MIN[:MAX]]"
+                           + " [--seed S]");
+        System.exit(1);
+    }
+}
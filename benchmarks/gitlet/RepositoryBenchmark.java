@@ -0,0 +1,190 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmarks of the core Repository operations. **
+ *
+ *  Every benchmark runs against a SyntheticRepository built for each
+ *  combination of file count, file size, history depth and branch count.
+ *  Repository.CWD is fixed when the class is loaded, so each fork points
+ *  user.dir at a fresh temporary directory before touching Repository;
+ *  JMH runs every parameter combination in its own fork. Standard output
+ *  is discarded so that log measures gitlet rather than the terminal.
+ *
+ *  Build with mvn -P benchmarks package, then run
+ *  java -jar target/benchmarks.jar [JMH options], e.g. -p fileCount=1000.
+ *
+ *  @author Maxim Kirby
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RepositoryBenchmark {
+
+    /** Number of files tracked by the repository. */
+    @Param({"100", "1000"})
+    public int fileCount;
+
+    /** Size of each file in bytes. */
+    @Param({"1024", "65536"})
+    public int fileSize;
+
+    /** Number of commits on master. */
+    @Param({"10", "200"})
+    public int historyDepth;
+
+    /** Number of branches, including master. */
+    @Param({"2", "8"})
+    public int branchCount;
+
+    /** Seed of the synthetic contents. */
+    private static final long SEED = 61;
+
+    /** Synthetic repository under test and its in-memory Repository. */
+    private SyntheticRepository synthetic;
+    private Repository repo;
+
+    /** Standard output replaced while benchmarks run. */
+    private PrintStream stdout;
+
+    /** Number of branches made for merges so far. */
+    private int merges;
+
+    /** Branch and commit that checkoutBranch and reset move to next. */
+    private boolean onBranch;
+    private boolean atOldCommit;
+
+    @Setup(Level.Trial)
+    public void createRepository() throws IOException {
+        System.setProperty("user.dir", Files.createTempDirectory("gitlet-bench").toString());
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        synthetic = new SyntheticRepository(fileCount, fileSize, historyDepth, branchCount, SEED);
+        repo = synthetic.repository();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteRepository() {
+        System.setOut(stdout);
+        SyntheticRepository.clear();
+        Repository.CWD.delete();
+    }
+
+    /***************************************************************************************************
+     ADD AND COMMIT */
+
+    /** State for add: a tenth of the files is rewritten before every
+     * invocation. */
+    @State(Scope.Benchmark)
+    public static class ChangedFiles {
+
+        /** Files rewritten for the next invocation. */
+        String[] names;
+
+        @Setup(Level.Invocation)
+        public void rewriteFiles(RepositoryBenchmark bench) {
+            List<String> files = bench.synthetic.files();
+            names = files.subList(0, Math.max(1, files.size() / 10)).toArray(new String[0]);
+            for (String name : names) {
+                bench.synthetic.rewrite(name);
+            }
+        }
+    }
+
+    /** State for commit: a tenth of the files is rewritten and staged
+     * before every invocation. */
+    @State(Scope.Benchmark)
+    public static class StagedFiles extends ChangedFiles {
+
+        @Setup(Level.Invocation)
+        public void stageFiles(RepositoryBenchmark bench) {
+            bench.repo.add(names);
+        }
+    }
+
+    @Benchmark
+    public void add(ChangedFiles changed) {
+        repo.add(changed.names);
+    }
+
+    @Benchmark
+    public Commit commit(StagedFiles staged) {
+        return repo.commit("benchmark commit");
+    }
+
+    /***************************************************************************************************
+     MOVING BETWEEN COMMITS */
+
+    @Benchmark
+    public void checkoutBranch() {
+        onBranch = !onBranch;
+        repo.checkoutBranch(onBranch ? synthetic.branchNames().get(0) : "master");
+    }
+
+    @Benchmark
+    public void reset() {
+        atOldCommit = !atOldCommit;
+        List<String> history = synthetic.history();
+        repo.reset(atOldCommit ? history.get(0) : history.get(history.size() - 1));
+    }
+
+    /***************************************************************************************************
+     HISTORY */
+
+    @Benchmark
+    public void log() {
+        repo.log();
+    }
+
+    @Benchmark
+    public Commit splitFind() {
+        List<String> history = synthetic.history();
+        return repo.splitFind(history.get(history.size() - 1), synthetic.branchHeads().get(0));
+    }
+
+    /** State for merge: a fresh branch diverging from master is made
+     * before every invocation. */
+    @State(Scope.Benchmark)
+    public static class MergeBranch {
+
+        /** Branch merged by the next invocation. */
+        String name;
+
+        @Setup(Level.Invocation)
+        public void prepareBranch(RepositoryBenchmark bench) {
+            bench.merges += 1;
+            name = "merge-" + bench.merges;
+            bench.repo.branch(name);
+            bench.repo.checkoutBranch(name);
+            bench.synthetic.commitChanges("changes to merge");
+            bench.repo.checkoutBranch("master");
+            bench.synthetic.commitChanges("changes on master");
+        }
+    }
+
+    @Benchmark
+    public void merge(MergeBranch branch) {
+        repo.merge(branch.name);
+    }
+}
@@ -0,0 +1,225 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static gitlet.Utils.*;
+
+/** Builds synthetic gitlet repositories for benchmarks. **
+ *
+ *  A synthetic repository is made through the real Repository API in the
+ *  current working directory: an initial commit of a given number of files
+ *  with sizes drawn from a distribution, a chain of commits each rewriting
+ *  a fraction of the files, and a number of branches that each add
+ *  commits of their own on top of the master history. Contents come from
+ *  a seeded random generator, so the same parameters always give the same
+ *  files.
+ *
+ *  @author Maxim Kirby
+ */
+class SyntheticRepository {
+
+    /** Fraction of the files rewritten by each commit, by default. */
+    static final double DEFAULT_CHURN = 0.1;
+
+    /** Commits made on each branch other than master. */
+    private static final int BRANCH_COMMITS = 2;
+
+    /** The repository being built. */
+    private final Repository repo;
+
+    /** Names of the tracked files. */
+    private final List<String> files = new ArrayList<>();
+
+    /** Distribution of file sizes. */
+    private final Sizes sizes;
+
+    /** Fraction of the files rewritten by each commit. */
+    private final double churn;
+
+    /** Source of file contents. */
+    private final Random random;
+
+    /** IDs of the commits on master after the initial commit, oldest first. */
+    private final List<String> history = new ArrayList<>();
+
+    /** Names and head commit IDs of the branches other than master. */
+    private final List<String> branchNames = new ArrayList<>();
+    private final List<String> branchHeads = new ArrayList<>();
+
+    /** Builds a repository in the current working directory, which must
+     * not already hold one, with FILECOUNT files of FILESIZE bytes, DEPTH
+     * commits on master and BRANCHES branches in all, from SEED. */
+    SyntheticRepository(int fileCount, int fileSize, int depth, int branches, long seed) {
+        this(fileCount, new Sizes(Sizes.FIXED, fileSize, fileSize), DEFAULT_CHURN,
+             depth, branches, seed);
+    }
+
+    /** Builds a repository in the current working directory, which must
+     * not already hold one, with FILECOUNT files of sizes drawn from SIZES,
+     * DEPTH commits on master each rewriting a CHURN fraction of the files,
+     * and BRANCHES branches in all, from SEED. */
+    SyntheticRepository(int fileCount, Sizes sizes, double churn, int depth, int branches,
+                        long seed) {
+        if (Repository.GITLET_DIR.exists()) {
+            throw error("A Gitlet version-control system already exists in %s.", Repository.CWD);
+        }
+        this.sizes = sizes;
+        this.churn = churn;
+        random = new Random(seed);
+        repo = new Repository();
+        repo.initialize();
+
+        // Initial snapshot, then a chain of commits rewriting some files
+        for (int i = 0; i < fileCount; i += 1) {
+            String name = "dir" + (i % 16) + "/file" + i + ".txt";
+            files.add(name);
+            rewrite(name);
+        }
+        repo.add(files.toArray(new String[0]));
+        history.add(repo.commit("synthetic snapshot").getId());
+        while (history.size() < depth) {
+            history.add(commitChanges("synthetic commit " + history.size()));
+        }
+
+        // Branches diverging from master with commits of their own
+        for (int b = 1; b < branches; b += 1) {
+            String name = "branch-" + b;
+            repo.branch(name);
+            repo.checkoutBranch(name);
+            String head = null;
+            for (int c = 0; c < BRANCH_COMMITS; c += 1) {
+                head = commitChanges(name + " commit " + c);
+            }
+            branchNames.add(name);
+            branchHeads.add(head);
+            repo.checkoutBranch("master");
+        }
+    }
+
+    /** Returns the repository. */
+    Repository repository() {
+        return repo;
+    }
+
+    /** Returns the names of the tracked files. */
+    List<String> files() {
+        return files;
+    }
+
+    /** Returns the IDs of the commits on master after the initial commit,
+     * oldest first. */
+    List<String> history() {
+        return history;
+    }
+
+    /** Returns the names of the branches other than master. */
+    List<String> branchNames() {
+        return branchNames;
+    }
+
+    /** Returns the head commit IDs of the branches other than master. */
+    List<String> branchHeads() {
+        return branchHeads;
+    }
+
+    /** Rewrites a churn fraction of the files, stages them and commits
+     * them with MESSAGE. Returns the ID of the new commit. */
+    String commitChanges(String message) {
+        int count = Math.max(1, (int) (files.size() * churn));
+        String[] changed = new String[count];
+        for (int i = 0; i < count; i += 1) {
+            changed[i] = files.get(random.nextInt(files.size()));
+            rewrite(changed[i]);
+        }
+        repo.add(changed);
+        return repo.commit(message).getId();
+    }
+
+    /** Writes new random contents to the file NAME. */
+    void rewrite(String name) {
+        File file = join(Repository.CWD, name);
+        file.getParentFile().mkdirs();
+        byte[] contents = new byte[sizes.next(random)];
+        for (int i = 0; i < contents.length; i += 1) {
+            contents[i] = i % 64 == 63 ? (byte) '\n' : (byte) ('a' + random.nextInt(26));
+        }
+        writeContents(file, contents);
+    }
+
+    /** A distribution of file sizes: FIXED at the minimum, UNIFORM between
+     * the minimum and maximum, or PARETO, a heavy tail above the minimum
+     * (most files small, a few huge) capped at the maximum. */
+    static class Sizes {
+
+        /** Kinds of distributions. */
+        static final String FIXED = "fixed";
+        static final String UNIFORM = "uniform";
+        static final String PARETO = "pareto";
+
+        /** Shape of the Pareto distribution giving the 80/20 rule. */
+        private static final double PARETO_SHAPE = 1.16;
+
+        /** Kind of distribution and its bounds in bytes. */
+        private final String kind;
+        private final int min;
+        private final int max;
+
+        Sizes(String kind, int min, int max) {
+            if (!kind.equals(FIXED) && !kind.equals(UNIFORM) && !kind.equals(PARETO)) {
+                throw error("Unknown size distribution %s.", kind);
+            }
+            this.kind = kind;
+            this.min = min;
+            this.max = Math.max(min, max);
+        }
+
+        /** Returns the distribution written as KIND:MIN[:MAX]. */
+        static Sizes parse(String spec) {
+            String[] parts = spec.split(":");
+            int min = Integer.parseInt(parts[1]);
+            return new Sizes(parts[0], min, parts.length > 2 ? Integer.parseInt(parts[2]) : min);
+        }
+
+        /** Returns a size drawn from RANDOM. */
+        int next(Random random) {
+            switch (kind) {
+                case UNIFORM:
+                    return min + random.nextInt(max - min + 1);
+                case PARETO:
+                    double u = 1 - random.nextDouble();
+                    return (int) Math.min(max, min / Math.pow(u, 1 / PARETO_SHAPE));
+                default:
+                    return min;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return kind + ":" + min + ":" + max;
+        }
+    }
+
+    /** Deletes everything in the current working directory. */
+    static void clear() {
+        deleteTree(Repository.CWD, false);
+    }
+
+    /** Deletes the contents of DIR, and DIR itself if SELF. */
+    private static void deleteTree(File dir, boolean self) {
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    deleteTree(child, true);
+                } else {
+                    child.delete();
+                }
+            }
+        }
+        if (self) {
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import static gitlet.Utils.*;
+
+/** Represents a gitlet batch of commands. **
+ *
+ *  A batch reads commands, one per line, from a file or from standard
+ *  input and runs them all in one process against one loaded repository,
+ *  so a long sequence of commands pays for a single JVM start and load.
+ *  Each line is split into arguments at whitespace; single or double
+ *  quotes group words into one argument, as in a shell, and a backslash
+ *  escapes the next character. Blank lines and lines starting with # are
+ *  skipped.
+ *
+ *  All commands of a batch share one Transaction, committed at the end
+ *  of the batch or, with --checkpoint N, after every N commands, so the
+ *  repository state is written at most once per checkpoint. A command
+ *  that fails prints its message and is rolled back to the state before
+ *  it, and the batch goes on with the next command.
+ *
+ *  @author Maxim Kirby
+ */
+class Batch {
+    /***************************************************************************************************
+     INSTANCE VARIABLES */
+
+    /** Option setting the number of commands between checkpoints. */
+    private static final String CHECKPOINT_OPTION = "--checkpoint";
+
+    /** Checkpoint interval meaning the batch is saved only at its end. */
+    private static final int END_ONLY = 0;
+
+    /***************************************************************************************************
+     MAIN METHODS */
+
+    /** Runs the batch given by ARGS: batch [--checkpoint N] [file]. */
+    static void run(String[] args) {
+        int checkpoint = END_ONLY;
+        String file = null;
+        int i = 1;
+        while (i < args.length) {
+            if (args[i].equals(CHECKPOINT_OPTION) && i + 1 < args.length) {
+                i += 1;
+                try {
+                    checkpoint = Integer.parseInt(args[i]);
+                } catch (NumberFormatException excp) {
+                    checkpoint = -1;
+                }
+                if (checkpoint < 0) {
+                    throw error("Incorrect operands.");
+                }
+            } else if (file == null && !args[i].startsWith("--")) {
+                file = args[i];
+            } else {
+                throw error("Incorrect operands.");
+            }
+            i += 1;
+        }
+
+        if (file != null && !Files.isRegularFile(Paths.get(file))) {
+            throw error("File does not exist.");
+        }
+        try (BufferedReader in = new BufferedReader(open(file))) {
+            runAll(in, checkpoint);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the arguments on LINE, or an empty array if it holds no
+     * command. */
+    static String[] parse(String line) {
+        List<String> args = new ArrayList<>();
+        StringBuilder arg = new StringBuilder();
+        boolean inArg = false;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (c == '\\' && quote != '\'' && i + 1 < line.length()) {
+                i += 1;
+                arg.append(line.charAt(i));
+                inArg = true;
+            } else if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else {
+                    arg.append(c);
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+                inArg = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inArg) {
+                    args.add(arg.toString());
+                    arg.setLength(0);
+                    inArg = false;
+                }
+            } else if (c == '#' && !inArg && args.isEmpty()) {
+                break;
+            } else {
+                arg.append(c);
+                inArg = true;
+            }
+        }
+        if (quote != 0) {
+            throw error("Unterminated quote.");
+        }
+        if (inArg) {
+            args.add(arg.toString());
+        }
+        return args.toArray(new String[0]);
+    }
+
+    /***************************************************************************************************
+     HELPER METHODS */
+
+    /** Runs every command read from IN, committing the transaction after
+     * every CHECKPOINT commands (or only at the end if END_ONLY). */
+    private static void runAll(BufferedReader in, int checkpoint) throws IOException {
+        Repository repo = Repository.GITLET_DIR.exists() ? Repository.load() : null;
+        int pending = 0;
+        Transaction.begin();
+
+        // Commands that finished are saved even if reading stops part way
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                Transaction.mark();
+                try {
+                    String[] args = parse(line);
+                    if (args.length == 0) {
+                        continue;
+                    }
+                    if (args[0].equals("batch") || args[0].equals("daemon")) {
+                        throw error("Cannot run %s within a batch.", args[0]);
+                    }
+                    repo = Main.runInBatch(args, repo);
+                } catch (GitletException excp) {
+                    System.out.println(excp.getMessage());
+                    repo = rollback();
+                } catch (RuntimeException excp) {
+                    System.out.println("Gitlet batch error: " + excp);
+                    repo = rollback();
+                }
+
+                pending += 1;
+                if (checkpoint != END_ONLY && pending >= checkpoint) {
+                    Transaction.commit();
+                    Transaction.begin();
+                    pending = 0;
+                }
+            }
+        } finally {
+            Transaction.commit();
+            System.out.flush();
+        }
+    }
+
+    /** Undoes the changes of the command that just failed and returns the
+     * repository as it was saved before it, or null if there is none. */
+    private static Repository rollback() {
+        Transaction.rollback();
+        return Repository.GITLET_DIR.exists() ? Repository.load() : null;
+    }
+
+    /** Returns a reader over FILE, or over standard input if FILE is null. */
+    private static Reader open(String file) throws IOException {
+        if (file == null) {
+            return new InputStreamReader(System.in, StandardCharsets.UTF_8);
+        }
+        return Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8);
+    }
+}
@@ -1,55 +1,55 @@
 package gitlet;
 
 import java.io.File;
-import java.io.Serializable;
-import static gitlet.Utils.*;
 
 /** Represents a gitlet Blob object. **
  *
- *  A blob is an object used to store a file's name and contents. Blobs
- *  are given unique identifiers using a SHA1 hash based on the name and
+ *  A blob is an object used to store a file's contents. Blobs are given
+ *  unique identifiers using a SHA1 hash based on the file's name and
  *  contents so that two files with the same name can be distinguished.
  *  Blobs are used as a means to save different versions of a file in
  *  gitlet so that older versions of a file can be retrieved at a later
  *  date.
  *
+ *  A Blob is only a handle to contents saved in the object store, loose or
+ *  packed, so the contents are streamed in and out of the store in
+ *  fixed-size buffers rather than held in memory.
+ *
  *  @author Maxim Kirby
  */
-public class Blob implements Serializable {
+public class Blob {
     /***************************************************************************************************
      INSTANCE VARIABLES */
 
     /** Unique identifier for this Blob. */
     private String id;
 
-    /** Given name for Blob. */
-    private String name;
-
-    /** Given file contents for Blob. */
-    private byte[] content;
+    /** Object store holding the Blob contents. */
+    private ObjectStore store;
 
     /***************************************************************************************************
      MAIN METHODS */
 
     /** Constructor. */
-    public Blob(File f, String n) {
-        name = n;
-        content = readContents(f);
-        id = sha1(name, content);
+    Blob(String i, ObjectStore s) {
+        id = i;
+        store = s;
     }
 
-        /** Returns String of Blob ID. */
+    /** Returns String of Blob ID. */
     public String getId() {
         return id;
     }
 
-    /** Returns String of Blob name. */
-    public String getName() {
-        return name;
-    }
-
     /** Returns byte array of Blob contents. */
     public byte[] getContent() {
-        return content;
+        return store.readBlob(id);
+    }
+
+    /** Writes Blob contents to the specified file without loading them
+     * into memory, creating its parent directories as needed. */
+    public void writeTo(File file) {
+        file.getParentFile().mkdirs();
+        store.copyBlob(id, file);
     }
 }
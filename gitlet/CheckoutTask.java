@@ -0,0 +1,66 @@
+package gitlet;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/** A fork/join task that writes Blobs into the working directory. **
+ *
+ *  The list of files is split in halves until each task holds only a few
+ *  files, so reading Blobs from the object store and writing them out
+ *  overlap across the workers of the pool. Each file is written from the
+ *  Blob at the matching index of the list of Blob IDs.
+ *
+ *  @author Maxim Kirby
+ */
+class CheckoutTask extends RecursiveAction {
+
+    /** Serialization version; gitlet never serializes this class. */
+    private static final long serialVersionUID = 1L;
+
+    /** Largest number of files handled without splitting. */
+    static final int THRESHOLD = 4;
+
+    /** Directory the file names are relative to. */
+    private final File dir;
+
+    /** Names of all files being written, and the Blob ID for each. */
+    private final List<String> filenames;
+    private final List<String> blobIds;
+
+    /** Range of files handled by this task. */
+    private final int from;
+    private final int to;
+
+    /** Store holding the Blobs. */
+    private final ObjectStore objects;
+
+    /** A task writing every file in FILENAMES, relative to DIR, from the
+     * Blob in OBJECTS with the matching ID in BLOBIDS. */
+    CheckoutTask(File dir, List<String> filenames, List<String> blobIds, ObjectStore objects) {
+        this(dir, filenames, blobIds, 0, filenames.size(), objects);
+    }
+
+    private CheckoutTask(File dir, List<String> filenames, List<String> blobIds, int from, int to,
+                         ObjectStore objects) {
+        this.dir = dir;
+        this.filenames = filenames;
+        this.blobIds = blobIds;
+        this.from = from;
+        this.to = to;
+        this.objects = objects;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from <= THRESHOLD) {
+            for (int i = from; i < to; i += 1) {
+                new Blob(blobIds.get(i), objects).writeTo(Utils.join(dir, filenames.get(i)));
+            }
+        } else {
+            int mid = (from + to) >>> 1;
+            invokeAll(new CheckoutTask(dir, filenames, blobIds, from, mid, objects),
+                      new CheckoutTask(dir, filenames, blobIds, mid, to, objects));
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/** Content-defined chunking of file contents. **
+ *
+ *  Contents are split into variable-size chunks at positions chosen by
+ *  the bytes around them rather than by offset, so an edit only changes
+ *  the chunks it touches: the chunks after it are cut at the same
+ *  places as before and keep the same contents. Saved by hash, those
+ *  chunks are shared between versions of a file and between files.
+ *
+ *  Cut points are found with FastCDC: a gear hash is rolled over the
+ *  bytes, one shift and one table lookup per byte, and a chunk ends where
+ *  the bits of the hash selected by a mask are all zero. Chunks are
+ *  never cut before MIN_SIZE bytes, a stricter mask is used before
+ *  AVG_SIZE and a looser one after it, which keeps chunk sizes close to
+ *  the average, and chunks are always cut at MAX_SIZE.
+ *
+ *  @author Maxim Kirby
+ */
+class Chunker {
+
+    /** Smallest, average and largest chunk sizes in bytes. */
+    static final int MIN_SIZE = 16 * 1024;
+    static final int AVG_SIZE = 64 * 1024;
+    static final int MAX_SIZE = 256 * 1024;
+
+    /** Masks of the gear hash before and after AVG_SIZE bytes, with two
+     * bits more and two bits fewer than log2(AVG_SIZE). */
+    private static final long MASK_SMALL = mask(Integer.numberOfTrailingZeros(AVG_SIZE) + 2);
+    private static final long MASK_LARGE = mask(Integer.numberOfTrailingZeros(AVG_SIZE) - 2);
+
+    /** Random values mixed into the gear hash for each byte value. The
+     * seed is fixed so that every gitlet cuts the same chunks. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** Receives each chunk as a range of a buffer that is only valid
+     * during the call. */
+    interface ChunkConsumer {
+        void accept(byte[] buffer, int offset, int length) throws IOException;
+    }
+
+    /** Splits the contents of IN into chunks, passing each to CONSUMER in
+     * order. Returns the number of bytes read. */
+    static long split(InputStream in, ChunkConsumer consumer) throws IOException {
+        byte[] buffer = new byte[2 * MAX_SIZE];
+        int start = 0;
+        int end = 0;
+        long total = 0;
+        boolean eof = false;
+        while (true) {
+            // Keep at least one largest chunk buffered unless the input ended
+            if (!eof && end - start < MAX_SIZE) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+                while (end < buffer.length) {
+                    int n = in.read(buffer, end, buffer.length - end);
+                    if (n < 0) {
+                        eof = true;
+                        break;
+                    }
+                    end += n;
+                }
+            }
+            if (start == end) {
+                return total;
+            }
+            int length = cut(buffer, start, end - start);
+            consumer.accept(buffer, start, length);
+            start += length;
+            total += length;
+        }
+    }
+
+    /** Returns the length of the chunk starting at OFFSET in DATA, of
+     * which LENGTH bytes are available. */
+    static int cut(byte[] data, int offset, int length) {
+        if (length <= MIN_SIZE) {
+            return length;
+        }
+        int limit = Math.min(length, MAX_SIZE);
+        int normal = Math.min(limit, AVG_SIZE);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < limit; i += 1) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    /** Returns a mask selecting BITS bits of the gear hash, spread over
+     * its upper half, where the hash has mixed in the most bytes. */
+    private static long mask(int bits) {
+        long result = 0;
+        for (int i = 0; i < bits; i += 1) {
+            result |= 1L << (63 - 2 * i);
+        }
+        return result;
+    }
+}
@@ -1,6 +1,8 @@
 package gitlet;
 
-import java.io.Serializable;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import static gitlet.Utils.*;
@@ -8,19 +10,31 @@ import static gitlet.Utils.*;
 /** Represents a gitlet commit object. **
  *
  *  A commit is an object used to track a snapshot of a directory. Commits
- *  store information about the files in the directory at the time of the
- *  snapshot, track which Commit came before it and is known as a parent.
+ *  store the ID of the root Tree describing the files in the directory at
+ *  the time of the snapshot, track which Commit came before it and is
+ *  known as a parent.
  *  Each commit also contains metadata about the time the commit was created
  *  and a user specified message to remind the user what might be inside this
  *  commit. Each commit als has a unique identifier based on a SHA1 hash.
  *
+ *  Commits are saved in a versioned binary encoding: a format version
+ *  byte, the raw 20-byte ID, the message and timestamp as varint-length
+ *  UTF-8 strings, a byte flagging which parents are present followed by
+ *  their raw IDs, then the raw ID of the root Tree.
+ *
  *  @author Maxim Kirby
  */
 
-public class Commit implements Serializable {
+public class Commit {
     /***************************************************************************************************
     INSTANCE VARIABLES */
 
+    /** Version of the binary encoding of Commits. */
+    private static final int FORMAT_VERSION = 2;
+
+    /** Format of Commit timestamps. */
+    private static final String DATE_FORMAT = "E MMM dd HH:mm:ss yyyy Z";
+
     /** Unique identifier for this Commit. */
     private String id;
 
@@ -31,22 +45,75 @@ public class Commit implements Serializable {
     /** IDs for each parent Commits. */
     private String[] parents;
 
-    /** Mapping of filenames to Blob IDs for files in the Commit. */
-    private TreeMap<String, String> files;
+    /** ID of the root Tree of files in the Commit. */
+    private String tree;
 
     /***************************************************************************************************
      MAIN METHODS */
 
     /** Constructor. */
-    public Commit(String m, String p, TreeMap<String, String> f) {
+    public Commit(String m, String p, String t) {
         message = m;
         Date currentDate = new Date();
-        SimpleDateFormat sdf = new SimpleDateFormat("E MMM dd HH:mm:ss yyyy Z");
+        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
         timestamp = sdf.format(currentDate);
         parents = new String[2];
         parents[0] = p;
-        files = f;
-        id = sha1(message+parents[0]+timestamp+files);
+        tree = t;
+        id = sha1(message+parents[0]+timestamp+tree);
+    }
+
+    /** Constructor for Commits saved by an older version of gitlet, which
+     * keep their ID, timestamp and parents (see Migration). */
+    Commit(String i, String m, String time, String[] p, String t) {
+        id = i;
+        message = m;
+        timestamp = time;
+        parents = p;
+        tree = t;
+    }
+
+    /** Constructor for decoded Commits. */
+    private Commit() {
+    }
+
+    /** Returns the binary encoding of Commit. */
+    public byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        out.write(FORMAT_VERSION);
+        writeId(out, id);
+        writeString(out, message);
+        writeString(out, timestamp);
+        out.write((parents[0] != null ? 1 : 0) | (parents[1] != null ? 2 : 0));
+        for (String parent : parents) {
+            if (parent != null) {
+                writeId(out, parent);
+            }
+        }
+        writeId(out, tree);
+        return out.toByteArray();
+    }
+
+    /** Returns the Commit whose binary encoding is BYTES. */
+    public static Commit decode(byte[] bytes) {
+        Metrics.count("commits.decoded");
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (in.get() != FORMAT_VERSION) {
+            throw error("Unknown commit format.");
+        }
+        Commit commit = new Commit();
+        commit.id = readId(in);
+        commit.message = readString(in);
+        commit.timestamp = readString(in);
+        int present = in.get();
+        commit.parents = new String[2];
+        for (int i = 0; i < 2; i += 1) {
+            if ((present & (1 << i)) != 0) {
+                commit.parents[i] = readId(in);
+            }
+        }
+        commit.tree = readId(in);
+        return commit;
     }
 
     /** Returns String of Commit ID. */
@@ -64,6 +131,15 @@ public class Commit implements Serializable {
         return timestamp;
     }
 
+    /** Returns Commit timestamp in milliseconds since the epoch. */
+    public long getTime() {
+        try {
+            return new SimpleDateFormat(DATE_FORMAT).parse(timestamp).getTime();
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+
     /** Returns String array of Commits parent IDs. */
     public String[] getParents() {
         return parents;
@@ -74,19 +150,30 @@ public class Commit implements Serializable {
         parents[1] = commitID;
     }
 
-    /** Returns TreeMap of filenames to Blob IDs for Commit. */
-    public TreeMap<String, String> getFiles() {
-        return files;
+    /** Returns the ID of the root Tree of Commit. */
+    public String getTree() {
+        return tree;
     }
 
     /** Formats printing of Commit. */
     @Override
     public String toString() {
-        String result = "===\n" + "commit " + id;
+        StringBuilder result = new StringBuilder();
+        format(result);
+        return result.toString();
+    }
+
+    /** Appends the full log entry of Commit to OUT. */
+    public void format(StringBuilder out) {
+        out.append("===\ncommit ").append(id);
         if (parents[1] != null) {
-            result += "\nMerge: "+ parents[0].substring(0, 7) + " " + parents[1].substring(0, 7);
+            out.append("\nMerge: ").append(parents[0], 0, 7).append(' ').append(parents[1], 0, 7);
         }
-        result += "\nDate: " + timestamp + "\n" + message+"\n";
-        return result;
+        out.append("\nDate: ").append(timestamp).append('\n').append(message).append('\n');
+    }
+
+    /** Appends the abbreviated ID and message of Commit to OUT. */
+    public void formatOneline(StringBuilder out) {
+        out.append(id, 0, 7).append(' ').append(message);
     }
 }
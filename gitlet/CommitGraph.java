@@ -0,0 +1,390 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import static gitlet.Utils.*;
+
+/** Represents the gitlet commit graph. **
+ *
+ *  The commit graph keeps the shape of the history in a compact file so
+ *  that walking it never requires deserializing Commits. Every Commit has
+ *  a fixed-size record holding its ID, the positions of its parents'
+ *  records, its timestamp and its generation number (one more than the
+ *  largest generation of its parents, with the initial commit at 1).
+ *  Parents are always recorded before their children, so new Commits are
+ *  simply appended, and the file is memory-mapped for reading.
+ *
+ *  Generation numbers let ancestry walks visit Commits from the newest
+ *  down: a Commit can only be reached from Commits with a larger
+ *  generation, so the first Commit reached from both sides of a merge is
+ *  their best common ancestor.
+ *
+ *  Commits are found by ID through a CommitIdIndex saved alongside the
+ *  graph, which covers all but the most recently appended records.
+ *
+ *  Record layout: [20-byte ID][parent position][second parent position]
+ *  [timestamp][generation], with positions of -1 for missing parents.
+ *
+ *  @author Maxim Kirby
+ */
+class CommitGraph {
+    /***************************************************************************************************
+     INSTANCE VARIABLES */
+
+    /** Position of a missing parent or unknown Commit. */
+    static final int NONE = -1;
+
+    /** Magic number and format version of the graph file. */
+    private static final int MAGIC = 0x47434752;
+    private static final int VERSION = 1;
+
+    /** Sizes of the parts of the graph file. */
+    private static final int HEADER_SIZE = 8;
+    private static final int ID_BYTES = 20;
+    private static final int RECORD_SIZE = 40;
+
+    /** Largest number of records left out of the ID index before it is
+     * rewritten. */
+    private static final int TAIL_LIMIT = 1024;
+
+    /** File name extension of the ID index saved next to the graph. */
+    private static final String IDS_EXT = ".ids";
+
+    /** Files the graph and its ID index are saved in. */
+    private final File path;
+    private final File idsPath;
+
+    /** Store used to rebuild the graph from saved Commits. */
+    private final ObjectStore objects;
+
+    /** Memory-mapped graph file, remapped after records are appended. */
+    private MappedByteBuffer map;
+
+    /** Number of Commits in the graph. */
+    private int count;
+
+    /** Sorted index of the IDs in the graph, opened on first use. */
+    private CommitIdIndex ids;
+
+    /** Positions of Commits looked up so far, keyed by ID. */
+    private final Map<String, Integer> positions = new HashMap<>();
+
+    /***************************************************************************************************
+     MAIN METHODS */
+
+    /** Opens the graph saved in FILE, building it from the Commits in
+     * OBJECTS if it does not exist yet. A partial record left at the end
+     * by an interrupted append is cut off, so later appends stay aligned. */
+    CommitGraph(File file, ObjectStore objects) {
+        path = file;
+        idsPath = join(file.getParentFile(), file.getName() + IDS_EXT);
+        this.objects = objects;
+        if (!path.isFile() || path.length() < HEADER_SIZE) {
+            rebuild();
+        } else {
+            count = (int) ((path.length() - HEADER_SIZE) / RECORD_SIZE);
+            if ((path.length() - HEADER_SIZE) % RECORD_SIZE != 0) {
+                truncate();
+            }
+        }
+    }
+
+    /** Returns the number of Commits in the graph. */
+    int size() {
+        return count;
+    }
+
+    /** Returns the position of the Commit with the given ID, or NONE if it
+     * is not in the graph. */
+    int position(String id) {
+        if (id == null || id.length() != UID_LENGTH) {
+            return NONE;
+        }
+        Integer known = positions.get(id);
+        if (known != null) {
+            return known;
+        }
+        byte[] key = fromHex(id);
+        int found = ids().find(key);
+        if (found != NONE) {
+            positions.put(id, found);
+            return found;
+        }
+
+        // Search records appended since the ID index was written
+        MappedByteBuffer buffer = buffer();
+        for (int pos = count - 1; pos >= ids().size(); pos -= 1) {
+            int start = record(pos);
+            int i = 0;
+            while (i < ID_BYTES && buffer.get(start + i) == key[i]) {
+                i += 1;
+            }
+            if (i == ID_BYTES) {
+                positions.put(id, pos);
+                return pos;
+            }
+        }
+        return NONE;
+    }
+
+    /** Returns the IDs of Commits starting with PREFIX, stopping once LIMIT
+     * have been found. */
+    List<String> findPrefix(String prefix, int limit) {
+        List<String> matches = new ArrayList<>();
+        ids().findPrefix(prefix, limit, matches);
+        for (int pos = ids().size(); pos < count && matches.size() < limit; pos += 1) {
+            String id = idAt(pos);
+            if (id.startsWith(prefix)) {
+                matches.add(id);
+            }
+        }
+        return matches;
+    }
+
+    /** Returns the ID of the Commit at position POS. */
+    String idAt(int pos) {
+        byte[] id = new byte[ID_BYTES];
+        buffer().get(record(pos), id);
+        return toHex(id);
+    }
+
+    /** Copies the raw ID of the Commit at position POS into DST at OFFSET. */
+    void idBytesAt(int pos, byte[] dst, int offset) {
+        buffer().get(record(pos), dst, offset, ID_BYTES);
+    }
+
+    /** Returns the position of the first (WHICH = 0) or second (WHICH = 1)
+     * parent of the Commit at position POS, or NONE. */
+    int parentAt(int pos, int which) {
+        return buffer().getInt(record(pos) + ID_BYTES + 4 * which);
+    }
+
+    /** Returns the timestamp, in milliseconds since the epoch, of the Commit
+     * at position POS. */
+    long timeAt(int pos) {
+        return buffer().getLong(record(pos) + ID_BYTES + 8);
+    }
+
+    /** Returns the generation number of the Commit at position POS. */
+    int generationAt(int pos) {
+        return buffer().getInt(record(pos) + ID_BYTES + 16);
+    }
+
+    /** Adds a newly saved Commit to the graph. */
+    void append(Commit commit) {
+        if (position(commit.getId()) != NONE) {
+            return;
+        }
+        String[] parents = commit.getParents();
+        int[] parentPos = {NONE, NONE};
+        int generation = 1;
+        for (int i = 0; i < 2; i += 1) {
+            if (parents[i] != null) {
+                parentPos[i] = position(parents[i]);
+                if (parentPos[i] == NONE) {
+                    // Graph is missing history; rebuilding also picks up COMMIT
+                    rebuild();
+                    return;
+                }
+                generation = Math.max(generation, generationAt(parentPos[i]) + 1);
+            }
+        }
+        Transaction.appending(path);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(path, true)))) {
+            writeRecord(out, commit.getId(), parentPos, commit.getTime(), generation);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        positions.put(commit.getId(), count);
+        count += 1;
+        map = null;
+        if (count - ids().size() > TAIL_LIMIT) {
+            writeIds(ids());
+        }
+    }
+
+    /** Returns the ID of the best common ancestor of Commits ID1 and ID2,
+     * or null if they have none. Commits are visited in decreasing order
+     * of generation, so the first one reached from both sides is returned. */
+    String mergeBase(String id1, String id2) {
+        int pos1 = position(id1);
+        int pos2 = position(id2);
+        if (pos1 == NONE || pos2 == NONE) {
+            return null;
+        }
+        byte[] reachedFrom = new byte[count];
+        PriorityQueue<Integer> queue = new PriorityQueue<>((a, b) -> {
+            int cmp = Integer.compare(generationAt(b), generationAt(a));
+            return cmp != 0 ? cmp : Integer.compare(b, a);
+        });
+        reachedFrom[pos1] |= 1;
+        reachedFrom[pos2] |= 2;
+        queue.add(pos1);
+        if (pos2 != pos1) {
+            queue.add(pos2);
+        }
+        while (!queue.isEmpty()) {
+            int pos = queue.poll();
+            if (reachedFrom[pos] == 3) {
+                return idAt(pos);
+            }
+            for (int which = 0; which < 2; which += 1) {
+                int parent = parentAt(pos, which);
+                if (parent != NONE && (reachedFrom[parent] | reachedFrom[pos]) != reachedFrom[parent]) {
+                    if (reachedFrom[parent] == 0) {
+                        queue.add(parent);
+                    }
+                    reachedFrom[parent] |= reachedFrom[pos];
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Rewrites the graph from every Commit in the object store. */
+    void rebuild() {
+        // Order Commits so that parents always come before their children
+        Map<String, Integer> order = new HashMap<>();
+        List<Commit> sorted = new ArrayList<>();
+        for (String id : objects.commitIds()) {
+            Deque<String> stack = new ArrayDeque<>();
+            stack.push(id);
+            while (!stack.isEmpty()) {
+                String top = stack.peek();
+                if (order.containsKey(top)) {
+                    stack.pop();
+                    continue;
+                }
+                Commit commit = objects.getCommit(top);
+                boolean ready = true;
+                for (String parent : commit.getParents()) {
+                    if (parent != null && !order.containsKey(parent) && objects.hasCommit(parent)) {
+                        stack.push(parent);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    stack.pop();
+                    order.put(top, sorted.size());
+                    sorted.add(commit);
+                }
+            }
+        }
+
+        // Write records into a fresh file
+        File temp = join(path.getParentFile(), path.getName() + ".tmp");
+        int[] generations = new int[sorted.size()];
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temp.toPath()), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (int pos = 0; pos < sorted.size(); pos += 1) {
+                Commit commit = sorted.get(pos);
+                int[] parentPos = {NONE, NONE};
+                int generation = 1;
+                for (int i = 0; i < 2; i += 1) {
+                    Integer parent = order.get(commit.getParents()[i]);
+                    if (parent != null) {
+                        parentPos[i] = parent;
+                        generation = Math.max(generation, generations[parent] + 1);
+                    }
+                }
+                generations[pos] = generation;
+                writeRecord(out, commit.getId(), parentPos, commit.getTime(), generation);
+            }
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(temp.toPath(), path.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        count = sorted.size();
+        positions.clear();
+        positions.putAll(order);
+        map = null;
+        idsPath.delete();
+        writeIds(new CommitIdIndex(idsPath));
+    }
+
+    /***************************************************************************************************
+     HELPER METHODS */
+
+    /** Cuts the graph file down to its COUNT whole records. */
+    private void truncate() {
+        try (FileChannel channel = FileChannel.open(path.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(record(count));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the graph file mapped into memory. */
+    private MappedByteBuffer buffer() {
+        if (map == null) {
+            try (FileChannel channel = FileChannel.open(path.toPath(), StandardOpenOption.READ)) {
+                map = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                  HEADER_SIZE + (long) count * RECORD_SIZE);
+                if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+                    throw error("Corrupt commit graph.");
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return map;
+    }
+
+    /** Returns the ID index, rewriting it first if it does not match the
+     * graph. */
+    private CommitIdIndex ids() {
+        if (ids == null) {
+            ids = new CommitIdIndex(idsPath);
+            if (ids.size() > count) {
+                idsPath.delete();
+                writeIds(new CommitIdIndex(idsPath));
+            }
+        }
+        return ids;
+    }
+
+    /** Writes the ID index of the whole graph, reusing the IDs in OLD. */
+    private void writeIds(CommitIdIndex old) {
+        CommitIdIndex.write(idsPath, old, this);
+        ids = new CommitIdIndex(idsPath);
+    }
+
+    /** Returns the offset of the record at position POS. */
+    private static int record(int pos) {
+        return HEADER_SIZE + pos * RECORD_SIZE;
+    }
+
+    /** Writes one graph record to OUT. */
+    private static void writeRecord(DataOutputStream out, String id, int[] parents,
+                                    long time, int generation) throws IOException {
+        out.write(fromHex(id));
+        out.writeInt(parents[0]);
+        out.writeInt(parents[1]);
+        out.writeLong(time);
+        out.writeInt(generation);
+    }
+}
@@ -0,0 +1,251 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import static gitlet.Utils.*;
+
+/** Represents the gitlet commit ID index. **
+ *
+ *  The commit ID index lists the IDs of the Commits in the commit graph in
+ *  sorted order, each with the position of its graph record. It is
+ *  memory-mapped and searched through a fan-out table followed by a
+ *  binary search, so finding a Commit by its full ID or by an abbreviated
+ *  one takes O(log n) steps however long the history is.
+ *
+ *  The index covers the first records of the graph; Commits appended
+ *  since it was written are searched separately by the graph, and the
+ *  index is rewritten once enough of them have piled up.
+ *
+ *  Layout: magic, version and record count, then 256 cumulative counts of
+ *  IDs by first byte, then one [20-byte ID][graph position] record per
+ *  Commit, sorted by ID.
+ *
+ *  @author Maxim Kirby
+ */
+class CommitIdIndex {
+    /***************************************************************************************************
+     INSTANCE VARIABLES */
+
+    /** Magic number and format version of the index file. */
+    private static final int MAGIC = 0x47434958;
+    private static final int VERSION = 1;
+
+    /** Sizes of the parts of the index file. */
+    private static final int ID_BYTES = 20;
+    private static final int HEADER_SIZE = 12;
+    private static final int FANOUT_SIZE = 256 * 4;
+    private static final int RECORD_SIZE = 24;
+
+    /** Memory-mapped index file, or null if there is none. */
+    private final MappedByteBuffer index;
+
+    /** Number of IDs in the index. */
+    private final int count;
+
+    /***************************************************************************************************
+     MAIN METHODS */
+
+    /** Opens the index saved in FILE. A missing or damaged file gives an
+     * empty index. */
+    CommitIdIndex(File file) {
+        MappedByteBuffer mapped = null;
+        if (file.isFile()) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (channel.size() < HEADER_SIZE + FANOUT_SIZE
+                        || mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION
+                        || channel.size() != HEADER_SIZE + FANOUT_SIZE
+                                              + (long) mapped.getInt(8) * RECORD_SIZE) {
+                    mapped = null;
+                }
+            } catch (IOException excp) {
+                mapped = null;
+            }
+        }
+        index = mapped;
+        count = index == null ? 0 : index.getInt(8);
+    }
+
+    /** Returns the number of IDs in the index. */
+    int size() {
+        return count;
+    }
+
+    /** Returns the graph position of the Commit with ID KEY, or
+     * CommitGraph.NONE if it is not in the index. */
+    int find(byte[] key) {
+        if (count == 0) {
+            return CommitGraph.NONE;
+        }
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : fanout(first - 1);
+        int hi = fanout(first) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareId(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return positionAt(mid);
+            }
+        }
+        return CommitGraph.NONE;
+    }
+
+    /** Adds to MATCHES the IDs in the index starting with PREFIX, stopping
+     * once MATCHES holds LIMIT IDs. */
+    void findPrefix(String prefix, int limit, List<String> matches) {
+        if (count == 0 || prefix.isEmpty()) {
+            return;
+        }
+
+        // Narrow search to IDs sharing the first byte, then find first ID >= PREFIX
+        int lo = 0;
+        int hi = count;
+        if (prefix.length() >= 2) {
+            try {
+                int first = Integer.parseInt(prefix.substring(0, 2), 16);
+                lo = first == 0 ? 0 : fanout(first - 1);
+                hi = fanout(first);
+            } catch (NumberFormatException excp) {
+                return;
+            }
+        }
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (idAt(mid).compareTo(prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int pos = lo; pos < count && matches.size() < limit; pos += 1) {
+            String id = idAt(pos);
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            matches.add(id);
+        }
+    }
+
+    /** Writes to FILE an index of every Commit in GRAPH, merging the IDs
+     * already in OLD with those of the graph records it does not cover. */
+    static void write(File file, CommitIdIndex old, CommitGraph graph) {
+        // Sort IDs of records appended since OLD was written
+        int total = graph.size();
+        int covered = Math.min(old.count, total);
+        byte[] ids = new byte[(total - covered) * ID_BYTES];
+        Integer[] added = new Integer[total - covered];
+        for (int i = 0; i < added.length; i += 1) {
+            graph.idBytesAt(covered + i, ids, i * ID_BYTES);
+            added[i] = i;
+        }
+        Arrays.sort(added, (a, b) -> Arrays.compareUnsigned(
+                ids, a * ID_BYTES, (a + 1) * ID_BYTES, ids, b * ID_BYTES, (b + 1) * ID_BYTES));
+
+        // Count IDs by first byte
+        int[] fanout = new int[256];
+        for (int pos = 0; pos < covered; pos += 1) {
+            fanout[old.index.get(old.record(pos)) & 0xff] += 1;
+        }
+        for (int i = 0; i < added.length; i += 1) {
+            fanout[ids[i * ID_BYTES] & 0xff] += 1;
+        }
+
+        File temp = join(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temp.toPath()), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(total);
+            int sum = 0;
+            for (int n : fanout) {
+                sum += n;
+                out.writeInt(sum);
+            }
+
+            // Merge both sorted runs of IDs
+            byte[] id = new byte[ID_BYTES];
+            int i = 0;
+            int j = 0;
+            while (i < covered || j < added.length) {
+                boolean takeOld = j == added.length
+                    || i < covered && old.compareId(i, ids, added[j] * ID_BYTES) < 0;
+                if (takeOld) {
+                    old.index.get(old.record(i), id);
+                    out.write(id);
+                    out.writeInt(old.positionAt(i));
+                    i += 1;
+                } else {
+                    out.write(ids, added[j] * ID_BYTES, ID_BYTES);
+                    out.writeInt(covered + added[j]);
+                    j += 1;
+                }
+            }
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /***************************************************************************************************
+     HELPER METHODS */
+
+    /** Returns the number of IDs whose first byte is at most B. */
+    private int fanout(int b) {
+        return index.getInt(HEADER_SIZE + 4 * b);
+    }
+
+    /** Returns the offset of the record at position POS. */
+    private int record(int pos) {
+        return HEADER_SIZE + FANOUT_SIZE + pos * RECORD_SIZE;
+    }
+
+    /** Returns the ID at position POS of the index. */
+    private String idAt(int pos) {
+        byte[] id = new byte[ID_BYTES];
+        index.get(record(pos), id);
+        return toHex(id);
+    }
+
+    /** Returns the graph position stored at position POS of the index. */
+    private int positionAt(int pos) {
+        return index.getInt(record(pos) + ID_BYTES);
+    }
+
+    /** Compares the ID at position POS of the index with KEY as unsigned
+     * bytes. */
+    private int compareId(int pos, byte[] key) {
+        return compareId(pos, key, 0);
+    }
+
+    /** Compares the ID at position POS of the index with the ID at offset
+     * FROM of KEYS as unsigned bytes. */
+    private int compareId(int pos, byte[] keys, int from) {
+        int start = record(pos);
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int cmp = (index.get(start + i) & 0xff) - (keys[from + i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,217 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import static gitlet.Utils.*;
+
+/** Represents the gitlet daemon. **
+ *
+ *  The daemon is a long-running gitlet process that serves commands over
+ *  a Unix domain socket in the .gitlet directory. It keeps the loaded
+ *  repository, with its object store, commit graph and caches, along
+ *  with JIT-compiled code, alive between commands, so a command costs
+ *  only its own work instead of a JVM start and a reload of the whole
+ *  repository. While the socket exists, gitlet forwards every command to
+ *  the daemon and prints its output.
+ *
+ *  Before each command the daemon compares the modification times and
+ *  sizes of the files and directories in .gitlet, and a generation stamp,
+ *  against those recorded after its own last command. If anything else
+ *  changed them, the repository is loaded again. The directories alone
+ *  miss changes deeper down, such as a record appended to a message index
+ *  file, so every gitlet command that runs outside the daemon while it is
+ *  running (a batch, or a command that could not be forwarded) writes a
+ *  new stamp when it finishes. A command failing part way also discards
+ *  the loaded repository, since it may hold changes that were never
+ *  saved.
+ *
+ *  Requests are the argument count followed by each argument; the reply
+ *  is the command's output, ended by closing the connection.
+ *
+ *  @author Maxim Kirby
+ */
+class Daemon {
+    /***************************************************************************************************
+     INSTANCE VARIABLES */
+
+    /** Socket the daemon listens on. */
+    static final File SOCKET = join(Repository.GITLET_DIR, "daemon.sock");
+
+    /** Generation stamp rewritten by commands run outside the daemon. */
+    static final File GENERATION = join(Repository.GITLET_DIR, "daemon.generation");
+
+    /** Files and directories whose changes invalidate the loaded repository. */
+    private static final File[] WATCHED = {
+        Repository.REPOSITORY, Repository.INDEX, Repository.GRAPH, Repository.COMMITS,
+        Repository.TREES, Repository.BLOBS, Repository.CHUNKS, Repository.PACKS,
+        Repository.MESSAGES, Repository.JOURNAL,
+    };
+
+    /** Repository loaded by the daemon, or null if it must be loaded again. */
+    private static Repository repo;
+
+    /** Fingerprint of the .gitlet directory after the last command served. */
+    private static String fingerprint;
+
+    /***************************************************************************************************
+     MAIN METHODS */
+
+    /** Serves commands until asked to stop. */
+    static void serve() {
+        if (!Repository.GITLET_DIR.exists()) {
+            throw error("Not in an initialized Gitlet directory.");
+        }
+        if (SOCKET.exists()) {
+            if (connect() != null) {
+                throw error("A gitlet daemon is already running.");
+            }
+            SOCKET.delete();
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            System.out.println("Gitlet daemon listening on " + SOCKET.getPath() + ".");
+            boolean running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    running = handle(client);
+                } catch (IOException excp) {
+                    // Client went away; keep serving others
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            SOCKET.delete();
+        }
+    }
+
+    /** Sends the command ARGS to a running daemon and prints its output.
+     * Returns false if no daemon is running, so the command should run in
+     * this process. */
+    static boolean forward(String[] args) {
+        if (args.length == 0 || !SOCKET.exists()) {
+            return false;
+        }
+        SocketChannel channel = connect();
+        if (channel == null) {
+            return false;
+        }
+        if (!args[0].equals("daemon")) {
+            args = Metrics.forwardedArgs(args);
+        }
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(channel)));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            channel.shutdownOutput();
+            InputStream in = Channels.newInputStream(channel);
+            copyStream(in, System.out, null);
+            System.out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return true;
+    }
+
+    /** Writes a new generation stamp if a daemon is running, so it loads
+     * the repository again before its next command. Called after a command
+     * ran in this process instead of the daemon. */
+    static void touch() {
+        if (SOCKET.exists()) {
+            writeContents(GENERATION, Long.toHexString(ThreadLocalRandom.current().nextLong()));
+        }
+    }
+
+    /***************************************************************************************************
+     HELPER METHODS */
+
+    /** Runs the command sent by CLIENT, writing its output back. Returns
+     * false if the daemon was asked to stop. */
+    private static boolean handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        PrintStream out = new PrintStream(new BufferedOutputStream(
+                Channels.newOutputStream(client), BUFFER_SIZE), false, StandardCharsets.UTF_8);
+        System.setOut(out);
+        System.setErr(out);
+        try {
+            if (args.length == 2 && args[0].equals("daemon") && args[1].equals("stop")) {
+                System.out.println("Gitlet daemon stopped.");
+                return false;
+            }
+
+            // Reload repository if anything else touched .gitlet
+            String current = fingerprint();
+            if (repo == null || !current.equals(fingerprint)) {
+                repo = Repository.GITLET_DIR.exists() ? Repository.load() : null;
+            }
+            Main.run(args, repo);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            repo = null;
+        } catch (RuntimeException excp) {
+            System.out.println("Gitlet daemon error: " + excp);
+            repo = null;
+        } finally {
+            fingerprint = fingerprint();
+            System.setOut(stdout);
+            System.setErr(stderr);
+            out.flush();
+        }
+        return true;
+    }
+
+    /** Returns a channel connected to the daemon, or null if none answers. */
+    private static SocketChannel connect() {
+        try {
+            return SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.toPath()));
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Returns the generation stamp followed by a summary of the
+     * modification times and sizes of the watched files and directories. */
+    private static String fingerprint() {
+        StringBuilder result = new StringBuilder();
+        result.append(GENERATION.isFile() ? readContentsAsString(GENERATION) : "-").append(';');
+        for (File file : WATCHED) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                result.append(attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS)).append(':')
+                      .append(attrs.size()).append(':').append(attrs.fileKey()).append(';');
+            } catch (NoSuchFileException excp) {
+                result.append("-;");
+            } catch (IOException excp) {
+                result.append("?;");
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,179 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import static gitlet.Utils.*;
+
+/** Binary deltas between two versions of a file. **
+ *
+ *  A delta describes a target byte array as a sequence of instructions
+ *  that either copy a range of bytes from a base array or insert literal
+ *  bytes. Successive versions of a file usually share most of their
+ *  contents, so the delta is much smaller than the target itself.
+ *
+ *  Deltas are created by indexing the base in fixed-size blocks and
+ *  sliding a rolling hash over the target, extending every block match as
+ *  far as it goes in both directions.
+ *
+ *  Layout: varint base length, varint target length, then instructions
+ *  [COPY][varint offset][varint length] or [INSERT][varint length][bytes].
+ *
+ *  @author Maxim Kirby
+ */
+class Delta {
+
+    /** Instruction codes. */
+    private static final int COPY = 1;
+    private static final int INSERT = 2;
+
+    /** Size of the blocks of the base that are indexed for matching. */
+    private static final int BLOCK = 16;
+
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 31;
+
+    /** PRIME raised to the power BLOCK - 1. */
+    private static final int TOP_POWER = power(PRIME, BLOCK - 1);
+
+    /** Multiplier spreading block hashes over the slots of the index. */
+    private static final int SPREAD = 0x9e3779b1;
+
+    /** Returns a delta that turns BASE into TARGET. */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(target.length / 8 + 16);
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        // Index every aligned block of the base by its hash
+        int blocks = base.length / BLOCK;
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(blocks, 1)) + 1;
+        int[] table = new int[1 << bits];
+        for (int b = blocks - 1; b >= 0; b -= 1) {
+            table[slot(hash(base, b * BLOCK), bits)] = b * BLOCK + 1;
+        }
+
+        // Slide a rolling hash over the target looking for blocks of the base
+        int pending = 0;
+        int i = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (i + BLOCK <= target.length) {
+            int candidate = table[slot(h, bits)] - 1;
+            if (candidate >= 0 && matches(base, candidate, target, i)) {
+                // Extend the match backwards over pending literals, then forwards
+                int start = i;
+                int from = candidate;
+                while (start > pending && from > 0 && base[from - 1] == target[start - 1]) {
+                    start -= 1;
+                    from -= 1;
+                }
+                int end = i + BLOCK;
+                int baseEnd = candidate + BLOCK;
+                while (end < target.length && baseEnd < base.length && base[baseEnd] == target[end]) {
+                    end += 1;
+                    baseEnd += 1;
+                }
+
+                writeInsert(out, target, pending, start);
+                out.write(COPY);
+                writeVarint(out, from);
+                writeVarint(out, end - start);
+                pending = end;
+                i = end;
+                if (i + BLOCK <= target.length) {
+                    h = hash(target, i);
+                }
+                continue;
+            }
+
+            // Roll hash forward by one byte
+            if (i + BLOCK < target.length) {
+                h = (h - (target[i] & 0xff) * TOP_POWER) * PRIME + (target[i + BLOCK] & 0xff);
+            }
+            i += 1;
+        }
+        writeInsert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the target obtained by applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        return apply(base, ByteBuffer.wrap(delta));
+    }
+
+    /** Returns the target obtained by applying the delta remaining in
+     * DELTA to BASE. */
+    static byte[] apply(byte[] base, ByteBuffer delta) {
+        long baseLength = readVarint(delta);
+        long targetLength = readVarint(delta);
+        if (baseLength != base.length) {
+            throw error("Delta does not match its base.");
+        }
+        byte[] target = new byte[(int) targetLength];
+        int pos = 0;
+        while (delta.hasRemaining()) {
+            int op = delta.get();
+            if (op == COPY) {
+                int offset = (int) readVarint(delta);
+                int length = (int) readVarint(delta);
+                System.arraycopy(base, offset, target, pos, length);
+                pos += length;
+            } else if (op == INSERT) {
+                int length = (int) readVarint(delta);
+                delta.get(target, pos, length);
+                pos += length;
+            } else {
+                throw error("Corrupt delta.");
+            }
+        }
+        if (pos != target.length) {
+            throw error("Corrupt delta.");
+        }
+        return target;
+    }
+
+    /***************************************************************************************************
+     HELPER METHODS */
+
+    /** Writes an insert instruction for TARGET[FROM..TO), if non-empty. */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] target, int from, int to) {
+        if (to > from) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    /** Returns true if the BLOCK bytes of BASE at FROM equal those of
+     * TARGET at TO. */
+    private static boolean matches(byte[] base, int from, byte[] target, int to) {
+        for (int k = 0; k < BLOCK; k += 1) {
+            if (base[from + k] != target[to + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the hash of the BLOCK bytes of DATA starting at FROM. */
+    private static int hash(byte[] data, int from) {
+        int h = 0;
+        for (int k = 0; k < BLOCK; k += 1) {
+            h = h * PRIME + (data[from + k] & 0xff);
+        }
+        return h;
+    }
+
+    /** Returns the slot of a table with 2^BITS slots holding hash H. */
+    private static int slot(int h, int bits) {
+        return (h * SPREAD) >>> (32 - bits);
+    }
+
+    /** Returns X raised to the power N, with int overflow. */
+    private static int power(int x, int n) {
+        int result = 1;
+        for (int k = 0; k < n; k += 1) {
+            result *= x;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,460 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Represents a line-level difference between two texts. **
+ *
+ *  Texts are split into lines, each keeping its line terminator, and
+ *  equal lines of all the texts compared are given the same integer ID,
+ *  so comparing lines costs one integer comparison. The shortest edit
+ *  script between two sequences of IDs is found with Myers' algorithm in
+ *  its linear-space form: the middle snake of the edit graph is found by
+ *  searching from both ends at once, and the halves on either side of it
+ *  are compared recursively, so memory use is proportional to the number
+ *  of lines rather than to their product.
+ *
+ *  Lines found in only one of the texts can never match, so they are
+ *  marked as deleted or inserted up front and only the remaining lines
+ *  are searched, and lines common to the start and end of a range are
+ *  skipped before it is searched. When the search for the middle snake
+ *  runs past a cost that grows with the square root of the input, the
+ *  furthest point reached is used instead, trading a slightly longer
+ *  script for bounded time on texts that have little in common.
+ *
+ *  @author Maxim Kirby
+ */
+class Diff {
+    /***************************************************************************************************
+     INSTANCE VARIABLES */
+
+    /** Line IDs of the lines of the old and new texts that are searched,
+     * and the index of each in its text. */
+    private final int[] a;
+    private final int[] b;
+    private final int[] aIndex;
+    private final int[] bIndex;
+
+    /** True for each line of the old text that is deleted and each line of
+     * the new text that is inserted. */
+    private final boolean[] deleted;
+    private final boolean[] inserted;
+
+    /** Furthest reaching x on each diagonal, searching forward and backward,
+     * indexed by diagonal plus diagonalOffset. */
+    private final int[] forward;
+    private final int[] backward;
+    private final int diagonalOffset;
+
+    /** Cost past which the search for a middle snake gives up on a minimal
+     * script. */
+    private final int tooExpensive;
+
+    /** Middle snake found by the last call of split, and whether each half
+     * should be searched for a minimal script. */
+    private int midX;
+    private int midY;
+    private boolean loMinimal;
+    private boolean hiMinimal;
+
+    /***************************************************************************************************
+     MAIN METHODS */
+
+    /** A comparison of the old text with line IDs OLDIDS and the new text
+     * with line IDs NEWIDS. */
+    private Diff(int[] oldIds, int[] newIds) {
+        deleted = new boolean[oldIds.length];
+        inserted = new boolean[newIds.length];
+
+        // Mark lines whose ID is missing from the other text right away
+        int maxId = 0;
+        for (int id : oldIds) {
+            maxId = Math.max(maxId, id);
+        }
+        for (int id : newIds) {
+            maxId = Math.max(maxId, id);
+        }
+        boolean[] inOld = new boolean[maxId + 1];
+        boolean[] inNew = new boolean[maxId + 1];
+        for (int id : oldIds) {
+            inOld[id] = true;
+        }
+        for (int id : newIds) {
+            inNew[id] = true;
+        }
+        aIndex = keep(oldIds, inNew, deleted);
+        bIndex = keep(newIds, inOld, inserted);
+        a = new int[aIndex.length];
+        for (int i = 0; i < a.length; i += 1) {
+            a[i] = oldIds[aIndex[i]];
+        }
+        b = new int[bIndex.length];
+        for (int i = 0; i < b.length; i += 1) {
+            b[i] = newIds[bIndex[i]];
+        }
+
+        int diagonals = a.length + b.length + 3;
+        forward = new int[diagonals];
+        backward = new int[diagonals];
+        diagonalOffset = b.length + 1;
+        int cost = 1;
+        for (int d = diagonals; d != 0; d >>= 2) {
+            cost <<= 1;
+        }
+        tooExpensive = Math.max(4096, cost);
+    }
+
+    /** Returns the hunks of a short edit script turning the lines with IDs
+     * A into the lines with IDs B, in order. */
+    static List<Hunk> diff(int[] a, int[] b) {
+        Diff diff = new Diff(a, b);
+        diff.compare(0, diff.a.length, 0, diff.b.length, false);
+        return diff.hunks();
+    }
+
+    /** Returns LINES of each of TEXTS, with equal lines given equal IDs
+     * across all of them. */
+    static Lines[] lines(byte[]... texts) {
+        Map<Line, Integer> ids = new HashMap<>();
+        Lines[] result = new Lines[texts.length];
+        for (int i = 0; i < texts.length; i += 1) {
+            result[i] = new Lines(texts[i], ids);
+        }
+        return result;
+    }
+
+    /** Returns true if DATA looks binary rather than text: it has a NUL
+     * byte among its first 8000 bytes. */
+    static boolean isBinary(byte[] data) {
+        int limit = Math.min(data.length, 8000);
+        for (int i = 0; i < limit; i += 1) {
+            if (data[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** A replacement of the old lines from aStart up to aEnd by the new
+     * lines from bStart up to bEnd. One of the ranges may be empty. */
+    static class Hunk {
+        final int aStart;
+        final int aEnd;
+        final int bStart;
+        final int bEnd;
+
+        Hunk(int aStart, int aEnd, int bStart, int bEnd) {
+            this.aStart = aStart;
+            this.aEnd = aEnd;
+            this.bStart = bStart;
+            this.bEnd = bEnd;
+        }
+    }
+
+    /** The lines of one text, as offsets into its bytes. */
+    static class Lines {
+
+        /** Bytes of the text. */
+        private final byte[] data;
+
+        /** Offset of the start of each line, followed by the length of DATA. */
+        private final int[] starts;
+
+        /** ID of each line, equal for equal lines. */
+        private final int[] ids;
+
+        /** The lines of DATA, taking IDs for them from IDS and adding new ones. */
+        Lines(byte[] data, Map<Line, Integer> ids) {
+            this.data = data;
+            int count = 0;
+            for (int i = 0; i < data.length; i += 1) {
+                if (data[i] == '\n') {
+                    count += 1;
+                }
+            }
+            if (data.length > 0 && data[data.length - 1] != '\n') {
+                count += 1;
+            }
+            starts = new int[count + 1];
+            this.ids = new int[count];
+            int line = 0;
+            int start = 0;
+            for (int i = 0; i < data.length; i += 1) {
+                if (data[i] == '\n' || i == data.length - 1) {
+                    starts[line] = start;
+                    this.ids[line] = ids.computeIfAbsent(new Line(data, start, i + 1),
+                                                         k -> ids.size());
+                    line += 1;
+                    start = i + 1;
+                }
+            }
+            starts[count] = data.length;
+        }
+
+        /** Returns the number of lines. */
+        int size() {
+            return ids.length;
+        }
+
+        /** Returns the IDs of the lines. */
+        int[] ids() {
+            return ids;
+        }
+
+        /** Returns true if the last line has no line terminator. */
+        boolean missingNewline() {
+            return data.length > 0 && data[data.length - 1] != '\n';
+        }
+
+        /** Writes the lines from FROM up to TO to OUT. */
+        void write(OutputStream out, int from, int to) throws IOException {
+            out.write(data, starts[from], starts[to] - starts[from]);
+        }
+    }
+
+    /** A line of a text used as a key for finding its ID. */
+    static class Line {
+        private final byte[] data;
+        private final int start;
+        private final int end;
+        private final int hash;
+
+        Line(byte[] data, int start, int end) {
+            this.data = data;
+            this.start = start;
+            this.end = end;
+            int h = 1;
+            for (int i = start; i < end; i += 1) {
+                h = 31 * h + data[i];
+            }
+            hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Line)) {
+                return false;
+            }
+            Line other = (Line) obj;
+            return hash == other.hash
+                   && Arrays.equals(data, start, end, other.data, other.start, other.end);
+        }
+    }
+
+    /***************************************************************************************************
+     HELPER METHODS */
+
+    /** Marks the lines deleted from A[XOFF..XLIM) and inserted into
+     * B[YOFF..YLIM), searching for a minimal script if MINIMAL is true. */
+    private void compare(int xoff, int xlim, int yoff, int ylim, boolean minimal) {
+        // Skip lines common to both ends
+        while (xoff < xlim && yoff < ylim && a[xoff] == b[yoff]) {
+            xoff += 1;
+            yoff += 1;
+        }
+        while (xoff < xlim && yoff < ylim && a[xlim - 1] == b[ylim - 1]) {
+            xlim -= 1;
+            ylim -= 1;
+        }
+
+        if (xoff == xlim) {
+            for (int y = yoff; y < ylim; y += 1) {
+                inserted[bIndex[y]] = true;
+            }
+        } else if (yoff == ylim) {
+            for (int x = xoff; x < xlim; x += 1) {
+                deleted[aIndex[x]] = true;
+            }
+        } else {
+            split(xoff, xlim, yoff, ylim, minimal);
+            int x = midX;
+            int y = midY;
+            boolean lo = loMinimal;
+            boolean hi = hiMinimal;
+            compare(xoff, x, yoff, y, lo);
+            compare(x, xlim, y, ylim, hi);
+        }
+    }
+
+    /** Finds the middle snake of the edit graph of A[XOFF..XLIM) and
+     * B[YOFF..YLIM), or a point close to the middle of a short path if
+     * MINIMAL is false and a minimal one is too expensive to find. */
+    private void split(int xoff, int xlim, int yoff, int ylim, boolean minimal) {
+        int off = diagonalOffset;
+        int dmin = xoff - ylim;
+        int dmax = xlim - yoff;
+        int fmid = xoff - yoff;
+        int bmid = xlim - ylim;
+        int fmin = fmid;
+        int fmax = fmid;
+        int bmin = bmid;
+        int bmax = bmid;
+        boolean odd = ((fmid - bmid) & 1) != 0;
+        forward[fmid + off] = xoff;
+        backward[bmid + off] = xlim;
+
+        for (int cost = 1;; cost += 1) {
+            // Extend the forward search by one edit
+            if (fmin > dmin) {
+                fmin -= 1;
+                forward[fmin - 1 + off] = -1;
+            } else {
+                fmin += 1;
+            }
+            if (fmax < dmax) {
+                fmax += 1;
+                forward[fmax + 1 + off] = -1;
+            } else {
+                fmax -= 1;
+            }
+            for (int d = fmax; d >= fmin; d -= 2) {
+                int lo = forward[d - 1 + off];
+                int hi = forward[d + 1 + off];
+                int x = lo >= hi ? lo + 1 : hi;
+                int y = x - d;
+                while (x < xlim && y < ylim && a[x] == b[y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[d + off] = x;
+                if (odd && bmin <= d && d <= bmax && backward[d + off] <= x) {
+                    setMiddle(x, y, true, true);
+                    return;
+                }
+            }
+
+            // Extend the backward search by one edit
+            if (bmin > dmin) {
+                bmin -= 1;
+                backward[bmin - 1 + off] = Integer.MAX_VALUE;
+            } else {
+                bmin += 1;
+            }
+            if (bmax < dmax) {
+                bmax += 1;
+                backward[bmax + 1 + off] = Integer.MAX_VALUE;
+            } else {
+                bmax -= 1;
+            }
+            for (int d = bmax; d >= bmin; d -= 2) {
+                int lo = backward[d - 1 + off];
+                int hi = backward[d + 1 + off];
+                int x = lo < hi ? lo : hi - 1;
+                int y = x - d;
+                while (x > xoff && y > yoff && a[x - 1] == b[y - 1]) {
+                    x -= 1;
+                    y -= 1;
+                }
+                backward[d + off] = x;
+                if (!odd && fmin <= d && d <= fmax && x <= forward[d + off]) {
+                    setMiddle(x, y, true, true);
+                    return;
+                }
+            }
+
+            if (minimal || cost < tooExpensive) {
+                continue;
+            }
+
+            // Too expensive: split at whichever search got furthest
+            int fxyBest = -1;
+            int fxBest = 0;
+            for (int d = fmax; d >= fmin; d -= 2) {
+                int x = Math.min(forward[d + off], xlim);
+                int y = x - d;
+                if (ylim < y) {
+                    x = ylim + d;
+                    y = ylim;
+                }
+                if (fxyBest < x + y) {
+                    fxyBest = x + y;
+                    fxBest = x;
+                }
+            }
+            int bxyBest = Integer.MAX_VALUE;
+            int bxBest = 0;
+            for (int d = bmax; d >= bmin; d -= 2) {
+                int x = Math.max(xoff, backward[d + off]);
+                int y = x - d;
+                if (y < yoff) {
+                    x = yoff + d;
+                    y = yoff;
+                }
+                if (x + y < bxyBest) {
+                    bxyBest = x + y;
+                    bxBest = x;
+                }
+            }
+            if ((xlim + ylim) - bxyBest < fxyBest - (xoff + yoff)) {
+                setMiddle(fxBest, fxyBest - fxBest, true, false);
+            } else {
+                setMiddle(bxBest, bxyBest - bxBest, false, true);
+            }
+            return;
+        }
+    }
+
+    /** Records the middle point X, Y and how to search either side of it. */
+    private void setMiddle(int x, int y, boolean lo, boolean hi) {
+        midX = x;
+        midY = y;
+        loMinimal = lo;
+        hiMinimal = hi;
+    }
+
+    /** Returns the indexes of the lines with IDS whose ID is marked in
+     * OTHER, marking the rest in MISSING. */
+    private static int[] keep(int[] ids, boolean[] other, boolean[] missing) {
+        int count = 0;
+        for (int i = 0; i < ids.length; i += 1) {
+            if (other[ids[i]]) {
+                count += 1;
+            } else {
+                missing[i] = true;
+            }
+        }
+        int[] result = new int[count];
+        count = 0;
+        for (int i = 0; i < ids.length; i += 1) {
+            if (other[ids[i]]) {
+                result[count] = i;
+                count += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Returns the marked deletions and insertions grouped into hunks. */
+    private List<Hunk> hunks() {
+        List<Hunk> result = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < deleted.length || j < inserted.length) {
+            if (i < deleted.length && j < inserted.length && !deleted[i] && !inserted[j]) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int aStart = i;
+            int bStart = j;
+            while (i < deleted.length && deleted[i]) {
+                i += 1;
+            }
+            while (j < inserted.length && inserted[j]) {
+                j += 1;
+            }
+            result.add(new Hunk(aStart, i, bStart, j));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,190 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/** Represents a line-level three-way merge of two versions of a file. **
+ *
+ *  Both versions are compared with their common ancestor (see Diff), and
+ *  the hunks of the two edit scripts are walked together in order of the
+ *  ancestor's lines. Runs of hunks that overlap or touch on the ancestor
+ *  form one region: if only one side changed it, that side's lines are
+ *  taken, and if both sides made the same change it is taken once. Only
+ *  a region both sides changed differently is a conflict, and lines the
+ *  two sides share at its start and end are written outside the
+ *  conflict markers, so each conflict holds only the lines in dispute.
+ *
+ *  A conflict is written as the current version's lines between
+ *  "<<<<<<< HEAD" and "=======", then the given version's lines before
+ *  ">>>>>>>", each marker on a line of its own.
+ *
+ *  @author Maxim Kirby
+ */
+class Diff3 {
+    /***************************************************************************************************
+     INSTANCE VARIABLES */
+
+    /** Conflict markers. */
+    private static final byte[] OURS_MARKER = "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SEPARATOR = "=======\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] THEIRS_MARKER = ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    /** Lines of the ancestor and of the current and given versions. */
+    private final Diff.Lines base;
+    private final Diff.Lines ours;
+    private final Diff.Lines theirs;
+
+    /** Stream receiving the merged contents. */
+    private final OutputStream out;
+
+    /** Number of conflicts written. */
+    private int conflicts;
+
+    /***************************************************************************************************
+     MAIN METHODS */
+
+    private Diff3(Diff.Lines[] lines, OutputStream out) {
+        base = lines[0];
+        ours = lines[1];
+        theirs = lines[2];
+        this.out = out;
+    }
+
+    /** Writes the merge of OURS and THEIRS, two versions of the text BASE,
+     * to OUT and returns the number of conflicts in it. */
+    static int merge(byte[] base, byte[] ours, byte[] theirs, OutputStream out) throws IOException {
+        Diff3 merge = new Diff3(Diff.lines(base, ours, theirs), out);
+        merge.run();
+        return merge.conflicts;
+    }
+
+    /** Writes OURS and THEIRS, two versions of a file that cannot be merged
+     * line by line, to OUT as a single conflict. */
+    static void conflict(byte[] ours, byte[] theirs, OutputStream out) throws IOException {
+        out.write(OURS_MARKER);
+        writeLine(ours, out);
+        out.write(SEPARATOR);
+        writeLine(theirs, out);
+        out.write(THEIRS_MARKER);
+    }
+
+    /***************************************************************************************************
+     HELPER METHODS */
+
+    /** Merges the two edit scripts region by region. */
+    private void run() throws IOException {
+        List<Diff.Hunk> oursHunks = Diff.diff(base.ids(), ours.ids());
+        List<Diff.Hunk> theirsHunks = Diff.diff(base.ids(), theirs.ids());
+        int i = 0;
+        int j = 0;
+        int done = 0;
+        while (i < oursHunks.size() || j < theirsHunks.size()) {
+            // Start a region at the earliest hunk of either side
+            int lo = Math.min(start(oursHunks, i), start(theirsHunks, j));
+            int hi = lo;
+            int oursFirst = i;
+            int theirsFirst = j;
+            while (true) {
+                if (i < oursHunks.size() && oursHunks.get(i).aStart <= hi) {
+                    hi = Math.max(hi, oursHunks.get(i).aEnd);
+                    i += 1;
+                } else if (j < theirsHunks.size() && theirsHunks.get(j).aStart <= hi) {
+                    hi = Math.max(hi, theirsHunks.get(j).aEnd);
+                    j += 1;
+                } else {
+                    break;
+                }
+            }
+
+            // Copy the unchanged lines before it, then resolve it
+            base.write(out, done, lo);
+            done = hi;
+            int[] oursRange = range(oursHunks, oursFirst, i, lo, hi);
+            int[] theirsRange = range(theirsHunks, theirsFirst, j, lo, hi);
+            if (i == oursFirst) {
+                theirs.write(out, theirsRange[0], theirsRange[1]);
+            } else if (j == theirsFirst) {
+                ours.write(out, oursRange[0], oursRange[1]);
+            } else {
+                resolve(oursRange, theirsRange);
+            }
+        }
+        base.write(out, done, base.size());
+    }
+
+    /** Writes a region both sides changed, OURSRANGE and THEIRSRANGE of
+     * their lines, keeping their common first and last lines outside of
+     * any conflict. */
+    private void resolve(int[] oursRange, int[] theirsRange) throws IOException {
+        int[] oursIds = ours.ids();
+        int[] theirsIds = theirs.ids();
+        int oursStart = oursRange[0];
+        int oursEnd = oursRange[1];
+        int theirsStart = theirsRange[0];
+        int theirsEnd = theirsRange[1];
+        while (oursStart < oursEnd && theirsStart < theirsEnd
+               && oursIds[oursStart] == theirsIds[theirsStart]) {
+            oursStart += 1;
+            theirsStart += 1;
+        }
+        while (oursEnd > oursStart && theirsEnd > theirsStart
+               && oursIds[oursEnd - 1] == theirsIds[theirsEnd - 1]) {
+            oursEnd -= 1;
+            theirsEnd -= 1;
+        }
+
+        ours.write(out, oursRange[0], oursStart);
+        if (oursStart < oursEnd || theirsStart < theirsEnd) {
+            conflicts += 1;
+            out.write(OURS_MARKER);
+            writeLines(ours, oursStart, oursEnd);
+            out.write(SEPARATOR);
+            writeLines(theirs, theirsStart, theirsEnd);
+            out.write(THEIRS_MARKER);
+        }
+        ours.write(out, oursEnd, oursRange[1]);
+    }
+
+    /** Returns the ancestor line at which the hunk at index I of HUNKS
+     * starts, or the largest int if there is none. */
+    private static int start(List<Diff.Hunk> hunks, int i) {
+        return i < hunks.size() ? hunks.get(i).aStart : Integer.MAX_VALUE;
+    }
+
+    /** Returns the range of one side's lines matching the ancestor lines
+     * from LO up to HI, given the side's hunks from index FROM up to TO
+     * within them. */
+    private static int[] range(List<Diff.Hunk> hunks, int from, int to, int lo, int hi) {
+        if (from == to) {
+            // Unchanged on this side, so offset by the hunks before it
+            int shift = 0;
+            if (from > 0) {
+                Diff.Hunk last = hunks.get(from - 1);
+                shift = last.bEnd - last.aEnd;
+            }
+            return new int[] {lo + shift, hi + shift};
+        }
+        Diff.Hunk first = hunks.get(from);
+        Diff.Hunk last = hunks.get(to - 1);
+        return new int[] {first.bStart - (first.aStart - lo), last.bEnd + (hi - last.aEnd)};
+    }
+
+    /** Writes the lines of TEXT from FROM up to TO, ending the last with a
+     * line terminator so that the next marker starts a line. */
+    private void writeLines(Diff.Lines text, int from, int to) throws IOException {
+        text.write(out, from, to);
+        if (to == text.size() && to > from && text.missingNewline()) {
+            out.write('\n');
+        }
+    }
+
+    /** Writes DATA to OUT, ending it with a line terminator if it has none. */
+    private static void writeLine(byte[] data, OutputStream out) throws IOException {
+        out.write(data);
+        if (data.length > 0 && data[data.length - 1] != '\n') {
+            out.write('\n');
+        }
+    }
+}
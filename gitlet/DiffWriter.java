@@ -0,0 +1,125 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import static gitlet.Utils.*;
+
+/** Writes differences between versions of files to standard output. **
+ *
+ *  Each changed file is written as a unified diff: a header naming the
+ *  old and new versions, then hunks of changed lines with up to CONTEXT
+ *  unchanged lines around them, hunks closer than twice that being
+ *  joined. Lines are compared with Diff and copied straight from the
+ *  contents into a large buffered stream, so no String is built per
+ *  line. Binary contents are not compared line by line; a single line
+ *  saying that they differ is written instead.
+ *
+ *  @author Maxim Kirby
+ */
+class DiffWriter {
+
+    /** Number of unchanged lines written around each change. */
+    static final int CONTEXT = 3;
+
+    /** Name written for a version that does not exist. */
+    private static final String NO_FILE = "/dev/null";
+
+    /** Stream receiving the diffs. */
+    private final OutputStream out;
+
+    /** A writer to standard output. */
+    DiffWriter() {
+        out = new BufferedOutputStream(System.out, BUFFER_SIZE);
+    }
+
+    /** Writes the difference between OLDCONTENT and NEWCONTENT, versions
+     * of the file NAME, either of which may be null if that version does
+     * not exist. */
+    void write(String name, byte[] oldContent, byte[] newContent) {
+        String oldName = oldContent == null ? NO_FILE : "a/" + name;
+        String newName = newContent == null ? NO_FILE : "b/" + name;
+        byte[] oldBytes = oldContent == null ? new byte[0] : oldContent;
+        byte[] newBytes = newContent == null ? new byte[0] : newContent;
+        try {
+            print("diff --gitlet a/" + name + " b/" + name + "\n");
+            if (Diff.isBinary(oldBytes) || Diff.isBinary(newBytes)) {
+                print("Binary files " + oldName + " and " + newName + " differ\n");
+                return;
+            }
+            print("--- " + oldName + "\n+++ " + newName + "\n");
+            Diff.Lines[] lines = Diff.lines(oldBytes, newBytes);
+            writeHunks(lines[0], lines[1], Diff.diff(lines[0].ids(), lines[1].ids()));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Flushes everything written so far. */
+    void flush() {
+        try {
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes HUNKS turning OLDLINES into NEWLINES, grouped with context. */
+    private void writeHunks(Diff.Lines oldLines, Diff.Lines newLines, List<Diff.Hunk> hunks)
+        throws IOException {
+        int first = 0;
+        while (first < hunks.size()) {
+            // Group hunks whose contexts would touch or overlap
+            int last = first;
+            while (last + 1 < hunks.size()
+                   && hunks.get(last + 1).aStart - hunks.get(last).aEnd <= 2 * CONTEXT) {
+                last += 1;
+            }
+            Diff.Hunk start = hunks.get(first);
+            Diff.Hunk end = hunks.get(last);
+            int aFrom = Math.max(0, start.aStart - CONTEXT);
+            int aTo = Math.min(oldLines.size(), end.aEnd + CONTEXT);
+            int bFrom = start.bStart - (start.aStart - aFrom);
+            int bTo = end.bEnd + (aTo - end.aEnd);
+            print("@@ -" + range(aFrom, aTo) + " +" + range(bFrom, bTo) + " @@\n");
+
+            int pos = aFrom;
+            for (int i = first; i <= last; i += 1) {
+                Diff.Hunk hunk = hunks.get(i);
+                writeLines(' ', oldLines, pos, hunk.aStart);
+                writeLines('-', oldLines, hunk.aStart, hunk.aEnd);
+                writeLines('+', newLines, hunk.bStart, hunk.bEnd);
+                pos = hunk.aEnd;
+            }
+            writeLines(' ', oldLines, pos, aTo);
+            first = last + 1;
+        }
+    }
+
+    /** Writes the lines of TEXT from FROM up to TO, each after PREFIX. */
+    private void writeLines(char prefix, Diff.Lines text, int from, int to) throws IOException {
+        for (int i = from; i < to; i += 1) {
+            out.write(prefix);
+            text.write(out, i, i + 1);
+        }
+        if (to == text.size() && to > from && text.missingNewline()) {
+            print("\n\\ No newline at end of file\n");
+        }
+    }
+
+    /** Returns the unified diff range of the lines from FROM up to TO. */
+    private static String range(int from, int to) {
+        int count = to - from;
+        if (count == 0) {
+            return from + ",0";
+        }
+        return count == 1 ? Integer.toString(from + 1) : (from + 1) + "," + count;
+    }
+
+    /** Writes TEXT as UTF-8. */
+    private void print(String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
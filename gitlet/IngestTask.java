@@ -0,0 +1,73 @@
+package gitlet;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/** A fork/join task that hashes files and saves them as Blobs. **
+ *
+ *  The list of files is split in halves until each task holds only a few
+ *  files, so hashing and writing are spread over every worker of the pool.
+ *  Files whose stat data shows they are unchanged since they were last
+ *  saved are not read at all. Each Blob is written to the slot of the
+ *  results array matching its file, so callers can apply them in order.
+ *
+ *  @author Maxim Kirby
+ */
+class IngestTask extends RecursiveAction {
+
+    /** Serialization version; gitlet never serializes this class. */
+    private static final long serialVersionUID = 1L;
+
+    /** Largest number of files handled without splitting. */
+    private static final int THRESHOLD = 4;
+
+    /** Directory the file names are relative to. */
+    private final File dir;
+
+    /** Names of all files being added, and the results for each. */
+    private final List<String> filenames;
+    private final Blob[] results;
+
+    /** Range of files handled by this task. */
+    private final int from;
+    private final int to;
+
+    /** Store receiving the Blobs, and stat cache used to skip unchanged files. */
+    private final ObjectStore objects;
+    private final StatIndex stat;
+
+    /** A task saving every file in FILENAMES, relative to DIR, into OBJECTS,
+     * writing the Blob for each into RESULTS. */
+    IngestTask(File dir, List<String> filenames, Blob[] results,
+               ObjectStore objects, StatIndex stat) {
+        this(dir, filenames, results, 0, filenames.size(), objects, stat);
+    }
+
+    private IngestTask(File dir, List<String> filenames, Blob[] results, int from, int to,
+                       ObjectStore objects, StatIndex stat) {
+        this.dir = dir;
+        this.filenames = filenames;
+        this.results = results;
+        this.from = from;
+        this.to = to;
+        this.objects = objects;
+        this.stat = stat;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from <= THRESHOLD) {
+            for (int i = from; i < to; i += 1) {
+                String filename = filenames.get(i);
+                File file = Utils.join(dir, filename);
+                Blob blob = objects.getBlob(stat.cachedBlobId(filename, file));
+                results[i] = blob != null ? blob : objects.putBlob(file, filename);
+            }
+        } else {
+            int mid = (from + to) >>> 1;
+            invokeAll(new IngestTask(dir, filenames, results, from, mid, objects, stat),
+                      new IngestTask(dir, filenames, results, mid, to, objects, stat));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import static gitlet.Utils.*;
+
+/** Writes Commits to standard output for log and global-log. **
+ *
+ *  Commits are formatted into one reused buffer and written through a
+ *  large buffered writer, so printing a long history neither builds a
+ *  String per Commit nor flushes per line. The writer stops accepting
+ *  Commits once a limit is reached or the reader of the output goes away
+ *  (as when piping into head), letting callers stop loading history.
+ *
+ *  @author Maxim Kirby
+ */
+class LogWriter {
+
+    /** Limit meaning every Commit is written. */
+    static final int NO_LIMIT = -1;
+
+    /** Standard output, and the buffered writer over it. */
+    private final PrintStream stdout;
+    private final Writer out;
+
+    /** Characters written since standard output was last checked for errors. */
+    private int unchecked;
+
+    /** Buffer reused to format each Commit. */
+    private final StringBuilder line = new StringBuilder(256);
+
+    /** Number of Commits still to write, or NO_LIMIT. */
+    private int remaining;
+
+    /** True if Commits are written as one abbreviated line each. */
+    private final boolean oneline;
+
+    /** True once the output has been closed by its reader. */
+    private boolean closed;
+
+    /** A writer printing at most LIMIT Commits (or NO_LIMIT), one line
+     * each if ONELINE. */
+    LogWriter(int limit, boolean oneline) {
+        this.remaining = limit;
+        this.oneline = oneline;
+        stdout = System.out;
+        out = new BufferedWriter(new OutputStreamWriter(stdout, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    /** Returns true if more Commits should be written. */
+    boolean wantsMore() {
+        return !closed && remaining != 0;
+    }
+
+    /** Writes COMMIT if more Commits are wanted. Returns wantsMore. */
+    boolean write(Commit commit) {
+        if (!wantsMore()) {
+            return false;
+        }
+        line.setLength(0);
+        if (oneline) {
+            commit.formatOneline(line);
+        } else {
+            commit.format(line);
+        }
+        line.append('\n');
+        try {
+            out.append(line);
+        } catch (IOException excp) {
+            closed = true;
+        }
+
+        // Standard output hides write errors, so check once per buffer
+        unchecked += line.length();
+        if (unchecked >= BUFFER_SIZE) {
+            unchecked = 0;
+            closed |= stdout.checkError();
+        }
+        if (remaining > 0) {
+            remaining -= 1;
+        }
+        return wantsMore();
+    }
+
+    /** Flushes everything written so far. */
+    void flush() {
+        try {
+            out.flush();
+        } catch (IOException excp) {
+            closed = true;
+        }
+        closed |= stdout.checkError();
+    }
+}
@@ -0,0 +1,30 @@
+package gitlet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A bounded map that evicts its least recently used entry once it holds
+ *  more than a fixed number of entries.
+ *
+ *  @author Maxim Kirby
+ */
+class LruCache<K, V> extends LinkedHashMap<K, V> {
+
+    /** Serialization version; gitlet never serializes this class. */
+    private static final long serialVersionUID = 1L;
+
+    /** Maximum number of entries kept in the cache. */
+    private final int capacity;
+
+    /** An empty cache holding at most CAPACITY entries. */
+    LruCache(int capacity) {
+        super(16, 0.75f, true);
+        this.capacity = capacity;
+    }
+
+    /** Evicts the eldest entry when the cache grows past its capacity. */
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > capacity;
+    }
+}
@@ -1,5 +1,7 @@
 package gitlet;
 
+import java.util.Arrays;
+
 import static gitlet.Utils.*;
 
 /** Driver class for Gitlet, a subset of the Git version-control system.
@@ -11,13 +13,73 @@ public class Main {
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
      */
     public static void main(String[] args) {
-        Repository repo = null;
+        // Start daemon, or hand command to a running daemon
+        if (args.length == 1 && args[0].equals("daemon")) {
+            runOrReport(() -> Daemon.serve());
+            return;
+        }
+        boolean batch = args.length > 0 && args[0].equals("batch");
+        if (!batch && Daemon.forward(args)) {
+            return;
+        }
+
+        // Let a running daemon know .gitlet changed behind its back
+        try {
+            if (batch) {
+                runOrReport(() -> Batch.run(args));
+            } else {
+                runOrReport(() -> run(args, null));
+            }
+        } finally {
+            Daemon.touch();
+        }
+    }
+
+    /** Runs the command in ARGS against REPO, or against the repository saved
+     *  in the .gitlet directory if REPO is null. Errors are thrown as
+     *  GitletExceptions carrying the message to print. A leading --metrics
+     *  option records metrics of the command (see Metrics). The command's
+     *  changes are saved together when it finishes, or dropped if it fails
+     *  (see Transaction). */
+    static void run(String[] args, Repository repo) {
+        args = Metrics.begin(args);
+        Transaction.begin();
+        boolean finished = false;
+        try {
+            dispatch(args, repo);
+            finished = true;
+        } finally {
+            if (finished) {
+                Transaction.commit();
+            } else {
+                Transaction.abort();
+            }
+            Metrics.end(args.length > 0 ? args[0] : "");
+        }
+    }
+
+    /** Runs the command in ARGS against REPO, or against the repository
+     *  saved in the .gitlet directory if REPO is null, as one command of a
+     *  Batch: its changes join the batch's open Transaction. Returns the
+     *  repository the command ran against. */
+    static Repository runInBatch(String[] args, Repository repo) {
+        args = Metrics.begin(args);
+        try {
+            return dispatch(args, repo);
+        } finally {
+            Metrics.end(args.length > 0 ? args[0] : "");
+        }
+    }
+
+    /** Checks ARGS and runs the command they name against REPO, loading
+     *  the repository first if REPO is null. Returns the repository the
+     *  command ran against. */
+    private static Repository dispatch(String[] args, Repository repo) {
         boolean repoExists = Repository.GITLET_DIR.exists();
 
         // Check if command was entered
         if (args.length == 0) {
-            System.out.println("Please enter a command.");
-            System.exit(0);
+            throw error("Please enter a command.");
         }
 
         // Fetch command
@@ -25,19 +87,19 @@ public class Main {
 
         // Check command and existence of repository
         if (!firstArg.equals("init")) {
-            if (repoExists) {
-                repo = readObject(Repository.REPOSITORY, Repository.class);
-            } else {
-                System.out.println("Not in an initialized Gitlet directory.");
-                System.exit(0);
+            if (!repoExists) {
+                throw error("Not in an initialized Gitlet directory.");
+            }
+            if (repo == null) {
+                long start = Metrics.start();
+                repo = Repository.load();
+                Metrics.time("load", start);
             }
         } else {
-            if (!repoExists) {
-                repo = new Repository();
-            } else {
-                System.out.println("A Gitlet version-control system already exists in the current directory.");
-                System.exit(0);
+            if (repoExists) {
+                throw error("A Gitlet version-control system already exists in the current directory.");
             }
+            repo = new Repository();
         }
 
         // Check command
@@ -49,9 +111,11 @@ public class Main {
                 break;
 
             case "add":
-                // java gitlet.Main add [file name]
-                validateNumArgs(args, 2);
-                repo.add(args[1]);
+                // java gitlet.Main add [file name | directory | glob] ...
+                if (args.length < 2) {
+                    validateNumArgs(args, 2);
+                }
+                repo.add(Arrays.copyOfRange(args, 1, args.length));
                 break;
 
             case "commit":
@@ -67,21 +131,29 @@ public class Main {
                 break;
 
             case "log":
-                // java gitlet.Main log
-                validateNumArgs(args, 1);
-                repo.log();
+                // java gitlet.Main log [-n count] [--oneline]
+                int[] logLimit = new int[1];
+                boolean logOneline = parseLogOptions(args, logLimit);
+                repo.log(logLimit[0], logOneline);
                 break;
 
             case "global-log":
-                // java gitlet.Main global-log
-                validateNumArgs(args, 1);
-                repo.globalLog();
+                // java gitlet.Main global-log [-n count] [--oneline]
+                int[] globalLimit = new int[1];
+                boolean globalOneline = parseLogOptions(args, globalLimit);
+                repo.globalLog(globalLimit[0], globalOneline);
                 break;
 
             case "find":
-                // java gitlet.Main find [commit message]
-                validateNumArgs(args, 2);
-                repo.find(args[1]);
+                // java gitlet.Main find [--word | --contains] [commit message]
+                if (args.length == 3 && args[1].equals("--word")) {
+                    repo.findWords(args[2]);
+                } else if (args.length == 3 && args[1].equals("--contains")) {
+                    repo.findSubstring(args[2]);
+                } else {
+                    validateNumArgs(args, 2);
+                    repo.find(args[1]);
+                }
                 break;
 
             case "status":
@@ -90,6 +162,18 @@ public class Main {
                 repo.status();
                 break;
 
+            case "diff":
+                // java gitlet.Main diff [--staged | commit id commit id]
+                if (args.length == 1) {
+                    repo.diff();
+                } else if (args.length == 2 && args[1].equals("--staged")) {
+                    repo.diffStaged();
+                } else {
+                    validateNumArgs(args, 3);
+                    repo.diff(args[1], args[2]);
+                }
+                break;
+
             case "checkout":
                 System.out.println(args.length);
                 // java gitlet.Main checkout [branch name]
@@ -137,17 +221,86 @@ public class Main {
                 repo.merge(args[1]);
                 break;
 
+            case "pack":
+                // java gitlet.Main pack
+                validateNumArgs(args, 1);
+                repo.pack();
+                break;
+
+            case "gc":
+                // java gitlet.Main gc [--grace days]
+                int graceDays = Repository.DEFAULT_GRACE_DAYS;
+                if (args.length != 1) {
+                    validateNumArgs(args, 3);
+                    if (!args[1].equals("--grace")) {
+                        throw error("Incorrect operands.");
+                    }
+                    graceDays = parseCount(args[2]);
+                }
+                repo.gc(graceDays);
+                break;
+
+            case "daemon":
+                // java gitlet.Main daemon stop (only reached with no daemon running)
+                validateNumArgs(args, 2);
+                if (!args[1].equals("stop")) {
+                    throw error("Incorrect operands.");
+                }
+                throw error("No gitlet daemon is running.");
+
             default:
-                System.out.println("No command with that name exists.");
-                System.exit(0);
+                throw error("No command with that name exists.");
+        }
+        return repo;
+    }
+
+    /** Runs TASK, printing the message of any GitletException it throws. */
+    private static void runOrReport(Runnable task) {
+        try {
+            task.run();
+        } catch (GitletException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /** Parses the options of log and global-log, storing the commit limit
+     * (or LogWriter.NO_LIMIT) in LIMIT[0]. Returns true if --oneline was given. */
+    private static boolean parseLogOptions(String[] args, int[] limit) {
+        limit[0] = LogWriter.NO_LIMIT;
+        boolean oneline = false;
+        int i = 1;
+        while (i < args.length) {
+            if (args[i].equals("--oneline")) {
+                oneline = true;
+            } else if (args[i].equals("-n") && i + 1 < args.length) {
+                i += 1;
+                limit[0] = parseCount(args[i]);
+            } else {
+                throw error("Incorrect operands.");
+            }
+            i += 1;
+        }
+        return oneline;
+    }
+
+    /** Returns the non-negative number given by ARG. */
+    private static int parseCount(String arg) {
+        int count;
+        try {
+            count = Integer.parseInt(arg);
+        } catch (NumberFormatException e) {
+            count = -1;
+        }
+        if (count < 0) {
+            throw error("Incorrect operands.");
         }
+        return count;
     }
 
     /** Validates operands for a command. */
     public static void validateNumArgs(String[] args, int n) {
         if (args.length != n) {
-            System.out.println("Incorrect operands.");
-            System.exit(0);
+            throw error("Incorrect operands.");
         }
     }
 }
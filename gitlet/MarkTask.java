@@ -0,0 +1,78 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RecursiveAction;
+
+/** A fork/join task that marks the Trees and Blobs reachable from Trees. **
+ *
+ *  Each Tree not marked yet is read, its Blobs are marked, and its
+ *  subtrees are handed to a new task, so the walk spreads across the
+ *  workers of the pool as it goes down the directory structure. The marks
+ *  live in a concurrent set shared by every task: a Tree shared by several
+ *  Commits, or by several directories, is read only by the task that
+ *  marks it first. As in CheckoutTask, the list of Trees is split in
+ *  halves until each task holds only a few.
+ *
+ *  @author Maxim Kirby
+ */
+class MarkTask extends RecursiveAction {
+
+    /** Serialization version; gitlet never serializes this class. */
+    private static final long serialVersionUID = 1L;
+
+    /** Largest number of Trees handled without splitting. */
+    static final int THRESHOLD = 4;
+
+    /** IDs of the Trees to walk. */
+    private final List<String> treeIds;
+
+    /** Range of Trees handled by this task. */
+    private final int from;
+    private final int to;
+
+    /** IDs of every object marked so far. */
+    private final Set<String> marked;
+
+    /** Store holding the Trees. */
+    private final ObjectStore objects;
+
+    /** A task adding to MARKED every Tree in TREEIDS, read from OBJECTS,
+     * and every Tree and Blob below them. MARKED must be safe to use from
+     * several threads. */
+    MarkTask(List<String> treeIds, Set<String> marked, ObjectStore objects) {
+        this(treeIds, 0, treeIds.size(), marked, objects);
+    }
+
+    private MarkTask(List<String> treeIds, int from, int to, Set<String> marked,
+                     ObjectStore objects) {
+        this.treeIds = treeIds;
+        this.from = from;
+        this.to = to;
+        this.marked = marked;
+        this.objects = objects;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from <= THRESHOLD) {
+            List<String> subtrees = new ArrayList<>();
+            for (int i = from; i < to; i += 1) {
+                String id = treeIds.get(i);
+                if (marked.add(id)) {
+                    Tree tree = objects.readTree(id);
+                    marked.addAll(tree.getFiles().values());
+                    subtrees.addAll(tree.getTrees().values());
+                }
+            }
+            if (!subtrees.isEmpty()) {
+                new MarkTask(subtrees, marked, objects).compute();
+            }
+        } else {
+            int mid = (from + to) >>> 1;
+            invokeAll(new MarkTask(treeIds, from, mid, marked, objects),
+                      new MarkTask(treeIds, mid, to, marked, objects));
+        }
+    }
+}
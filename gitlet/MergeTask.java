@@ -0,0 +1,162 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.RecursiveAction;
+
+/** A fork/join task that resolves the files of a merge. **
+ *
+ *  Each file is given by its Blob IDs at the split point, in the current
+ *  commit and in the given commit (null where it does not exist), and is
+ *  classified from those alone: kept as it is, taken from the given
+ *  commit, removed, or merged line by line (see Diff3). The working
+ *  directory is updated to match, and the action and the Blob ID to stage
+ *  for each file are written to the slots of the results arrays matching
+ *  it, so the caller can update the stage in order once every file is
+ *  done. As in CheckoutTask, the list is split in halves until each task
+ *  holds only a few files.
+ *
+ *  @author Maxim Kirby
+ */
+class MergeTask extends RecursiveAction {
+
+    /** Serialization version; gitlet never serializes this class. */
+    private static final long serialVersionUID = 1L;
+
+    /** Largest number of files handled without splitting. */
+    static final int THRESHOLD = 4;
+
+    /** Actions taken for a file. */
+    static final int KEEP = 0;
+    static final int TAKE = 1;
+    static final int REMOVE = 2;
+    static final int MERGE = 3;
+
+    /** Directory the file names are relative to. */
+    private final File dir;
+
+    /** Names of all files being merged, and their Blob IDs at the split
+     * point, in the current commit and in the given commit. */
+    private final List<String> filenames;
+    private final String[] splitIds;
+    private final String[] thisIds;
+    private final String[] thatIds;
+
+    /** Action taken, Blob ID to stage and number of conflicts for each file. */
+    private final int[] actions;
+    private final String[] stagedIds;
+    private final int[] conflicts;
+
+    /** Range of files handled by this task. */
+    private final int from;
+    private final int to;
+
+    /** Store holding the Blobs and receiving merged ones. */
+    private final ObjectStore objects;
+
+    /** A task resolving every file in FILENAMES, relative to DIR, from its
+     * versions SPLITIDS, THISIDS and THATIDS in OBJECTS, writing results
+     * into ACTIONS, STAGEDIDS and CONFLICTS. */
+    MergeTask(File dir, List<String> filenames, String[] splitIds, String[] thisIds,
+              String[] thatIds, int[] actions, String[] stagedIds, int[] conflicts,
+              ObjectStore objects) {
+        this(dir, filenames, splitIds, thisIds, thatIds, actions, stagedIds, conflicts,
+             0, filenames.size(), objects);
+    }
+
+    private MergeTask(File dir, List<String> filenames, String[] splitIds, String[] thisIds,
+                      String[] thatIds, int[] actions, String[] stagedIds, int[] conflicts,
+                      int from, int to, ObjectStore objects) {
+        this.dir = dir;
+        this.filenames = filenames;
+        this.splitIds = splitIds;
+        this.thisIds = thisIds;
+        this.thatIds = thatIds;
+        this.actions = actions;
+        this.stagedIds = stagedIds;
+        this.conflicts = conflicts;
+        this.from = from;
+        this.to = to;
+        this.objects = objects;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from <= THRESHOLD) {
+            for (int i = from; i < to; i += 1) {
+                resolve(i);
+            }
+        } else {
+            int mid = (from + to) >>> 1;
+            invokeAll(new MergeTask(dir, filenames, splitIds, thisIds, thatIds, actions,
+                                    stagedIds, conflicts, from, mid, objects),
+                      new MergeTask(dir, filenames, splitIds, thisIds, thatIds, actions,
+                                    stagedIds, conflicts, mid, to, objects));
+        }
+    }
+
+    /** Returns the action for a file with Blob IDs SPLITFILE at the split
+     * point, THISFILE in the current commit and THATFILE in the given one. */
+    static int classify(String splitFile, String thisFile, String thatFile) {
+        // Check components
+        boolean isInSplit = splitFile != null;
+        boolean isInThis = thisFile != null;
+        boolean isInThat = thatFile != null;
+        boolean thisIsMod = isInSplit && !splitFile.equals(thisFile);
+        boolean thatIsMod = isInSplit && !splitFile.equals(thatFile);
+
+        if ((thisIsMod && thatIsMod) || (!isInSplit && isInThis && isInThat)) {
+            // Merge line by line unless both sides made the same change; files
+            // added on both sides are merged against an empty base
+            return Objects.equals(thisFile, thatFile) ? KEEP : MERGE;
+        } else if (isInSplit && isInThis && !isInThat) {
+            return REMOVE;
+        } else if ((!isInSplit && !isInThis && isInThat) || (isInSplit && !thisIsMod && thatIsMod)) {
+            return TAKE;
+        }
+        return KEEP;
+    }
+
+    /** Classifies the file at index I and updates the working directory. */
+    private void resolve(int i) {
+        File file = Utils.join(dir, filenames.get(i));
+        int action = classify(splitIds[i], thisIds[i], thatIds[i]);
+        if (action == TAKE) {
+            new Blob(thatIds[i], objects).writeTo(file);
+            stagedIds[i] = thatIds[i];
+        } else if (action == REMOVE) {
+            file.delete();
+        } else if (action == MERGE) {
+            conflicts[i] = mergeFile(file, splitIds[i], thisIds[i], thatIds[i]);
+            stagedIds[i] = objects.putBlob(file, filenames.get(i)).getId();
+        }
+        actions[i] = action;
+    }
+
+    /** Rewrites FILE with the line-level merge of its versions THISFILE
+     * and THATFILE against SPLITFILE, the version at the split point, any
+     * of which may be null. A file deleted on one side or holding binary
+     * contents is written as a single conflict of both versions. Returns
+     * the number of conflicts. */
+    private int mergeFile(File file, String splitFile, String thisFile, String thatFile) {
+        byte[] base = splitFile == null ? new byte[0] : objects.readBlob(splitFile);
+        byte[] ours = thisFile == null ? new byte[0] : objects.readBlob(thisFile);
+        byte[] theirs = thatFile == null ? new byte[0] : objects.readBlob(thatFile);
+        file.getParentFile().mkdirs();
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file.toPath()))) {
+            if (thisFile == null || thatFile == null || Diff.isBinary(base)
+                || Diff.isBinary(ours) || Diff.isBinary(theirs)) {
+                Diff3.conflict(ours, theirs, out);
+                return 1;
+            }
+            return Diff3.merge(base, ours, theirs, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
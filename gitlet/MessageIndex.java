@@ -0,0 +1,261 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import static gitlet.Utils.*;
+
+/** Represents the gitlet commit message index. **
+ *
+ *  The message index maps every commit message, every word of a message
+ *  and every three-character run of a message to the IDs of the Commits
+ *  containing it, so find answers from the few posting lists it needs
+ *  rather than loading every Commit. Each key is hashed and its posting
+ *  list kept in a file of raw 20-byte IDs under a directory named after
+ *  the first byte of the hash, so new Commits are indexed by appending
+ *  their ID to a handful of files.
+ *
+ *  Words and runs are indexed in lower case, so word and substring
+ *  queries ignore case while exact message queries do not.
+ *
+ *  @author Maxim Kirby
+ */
+class MessageIndex {
+    /***************************************************************************************************
+     INSTANCE VARIABLES */
+
+    /** Prefixes of hashed keys, one per kind of key. */
+    private static final String MESSAGE = "m:";
+    private static final String WORD = "w:";
+    private static final String TRIGRAM = "t:";
+
+    /** Length of the runs of characters indexed for substring queries. */
+    private static final int GRAM = 3;
+
+    /** Size of a raw ID in a posting list. */
+    private static final int ID_BYTES = 20;
+
+    /** Name of the file marking an index that holds every Commit. */
+    private static final String COMPLETE = "complete";
+
+    /** Directory the index is saved in. */
+    private final File dir;
+
+    /** Store used to build the index and check substring matches. */
+    private final ObjectStore objects;
+
+    /***************************************************************************************************
+     MAIN METHODS */
+
+    /** Opens the index saved in DIR. */
+    MessageIndex(File dir, ObjectStore objects) {
+        this.dir = dir;
+        this.objects = objects;
+    }
+
+    /** Adds a newly saved Commit to the index. An index left incomplete by
+     * an older version of gitlet is rebuilt instead, picking up COMMIT. */
+    void add(Commit commit) {
+        if (!join(dir, COMPLETE).isFile()) {
+            rebuild();
+            return;
+        }
+        Map<String, List<String>> postings = new HashMap<>();
+        addKeys(commit, postings);
+        append(postings);
+    }
+
+    /** Returns the IDs of Commits whose message is exactly MESSAGE, sorted. */
+    List<String> findMessage(String message) {
+        ensureComplete();
+        return new ArrayList<>(new TreeSet<>(postings(MESSAGE + message)));
+    }
+
+    /** Returns the IDs of Commits whose message contains every word of
+     * WORDS, ignoring case, sorted. */
+    List<String> findWords(String words) {
+        ensureComplete();
+        List<String> keys = new ArrayList<>();
+        for (String word : words(words)) {
+            keys.add(WORD + word);
+        }
+        return new ArrayList<>(new TreeSet<>(intersect(keys)));
+    }
+
+    /** Returns the IDs of Commits whose message contains TEXT, ignoring
+     * case, sorted. Candidates sharing every run of TEXT are checked
+     * against their message; text shorter than a run checks every Commit. */
+    List<String> findSubstring(String text) {
+        ensureComplete();
+        String lower = text.toLowerCase(Locale.ROOT);
+        Set<String> candidates;
+        if (lower.length() < GRAM) {
+            candidates = new LinkedHashSet<>(objects.commitIds());
+        } else {
+            List<String> keys = new ArrayList<>();
+            for (String gram : trigrams(lower)) {
+                keys.add(TRIGRAM + gram);
+            }
+            candidates = intersect(keys);
+        }
+        TreeSet<String> matches = new TreeSet<>();
+        for (String id : candidates) {
+            Commit commit = objects.getCommit(id);
+            if (commit != null && commit.getMessage().toLowerCase(Locale.ROOT).contains(lower)) {
+                matches.add(id);
+            }
+        }
+        return new ArrayList<>(matches);
+    }
+
+    /** Marks the index as no longer holding every Commit, so that it is
+     * rebuilt before it is next used. */
+    void invalidate() {
+        join(dir, COMPLETE).delete();
+    }
+
+    /** Rewrites the index from every Commit in the object store. */
+    void rebuild() {
+        if (dir.isDirectory()) {
+            deleteTree(dir);
+        }
+        dir.mkdirs();
+        Map<String, List<String>> postings = new HashMap<>();
+        for (String id : objects.commitIds()) {
+            addKeys(objects.getCommit(id), postings);
+        }
+        append(postings);
+        try {
+            join(dir, COMPLETE).createNewFile();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /***************************************************************************************************
+     HELPER METHODS */
+
+    /** Builds the index if it does not hold every Commit yet. */
+    private void ensureComplete() {
+        if (!join(dir, COMPLETE).isFile()) {
+            rebuild();
+        }
+    }
+
+    /** Adds the ID of COMMIT to the postings of every key of its message. */
+    private static void addKeys(Commit commit, Map<String, List<String>> postings) {
+        String message = commit.getMessage();
+        String lower = message.toLowerCase(Locale.ROOT);
+        Set<String> keys = new LinkedHashSet<>();
+        keys.add(MESSAGE + message);
+        for (String word : words(lower)) {
+            keys.add(WORD + word);
+        }
+        for (String gram : trigrams(lower)) {
+            keys.add(TRIGRAM + gram);
+        }
+        for (String key : keys) {
+            postings.computeIfAbsent(key, k -> new ArrayList<>()).add(commit.getId());
+        }
+    }
+
+    /** Appends the IDs in POSTINGS to the posting list files of their keys. */
+    private void append(Map<String, List<String>> postings) {
+        for (Map.Entry<String, List<String>> posting : postings.entrySet()) {
+            File file = postingFile(posting.getKey());
+            file.getParentFile().mkdir();
+            Transaction.appending(file);
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file, true))) {
+                for (String id : posting.getValue()) {
+                    out.write(fromHex(id));
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Returns the IDs in the posting list of KEY. */
+    private List<String> postings(String key) {
+        File file = postingFile(key);
+        List<String> ids = new ArrayList<>();
+        if (!file.isFile()) {
+            return ids;
+        }
+        byte[] contents = readContents(file);
+        byte[] id = new byte[ID_BYTES];
+        for (int i = 0; i + ID_BYTES <= contents.length; i += ID_BYTES) {
+            System.arraycopy(contents, i, id, 0, ID_BYTES);
+            ids.add(toHex(id));
+        }
+        return ids;
+    }
+
+    /** Returns the IDs found in the posting lists of all KEYS, reading the
+     * shortest list first. No keys match nothing. */
+    private Set<String> intersect(List<String> keys) {
+        if (keys.isEmpty()) {
+            return new LinkedHashSet<>();
+        }
+        keys.sort((a, b) -> Long.compare(postingFile(a).length(), postingFile(b).length()));
+        Set<String> result = new LinkedHashSet<>(postings(keys.get(0)));
+        int i = 1;
+        while (i < keys.size() && !result.isEmpty()) {
+            result.retainAll(new LinkedHashSet<>(postings(keys.get(i))));
+            i += 1;
+        }
+        return result;
+    }
+
+    /** Returns the file holding the posting list of KEY. */
+    private File postingFile(String key) {
+        String hash = sha1(key);
+        return join(dir, hash.substring(0, 2), hash.substring(2));
+    }
+
+    /** Returns the distinct words of TEXT, split on anything that is not
+     * a letter or digit and lowered. */
+    private static Set<String> words(String text) {
+        Set<String> words = new LinkedHashSet<>();
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    /** Returns the distinct runs of GRAM characters in TEXT. */
+    private static Set<String> trigrams(String text) {
+        Set<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i + GRAM <= text.length(); i += 1) {
+            grams.add(text.substring(i, i + GRAM));
+        }
+        return grams;
+    }
+
+    /** Deletes DIR and everything below it. */
+    private static void deleteTree(File dir) {
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    deleteTree(child);
+                } else {
+                    child.delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,208 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Represents gitlet's per-command metrics. **
+ *
+ *  When enabled, a command records how long its phases take (loading
+ *  the repository, hashing files, writing the working directory, saving)
+ *  and counts events by name: bytes moved by each Utils I/O helper,
+ *  Commits decoded, Blobs read, and hits and misses of each cache. At
+ *  the end of the command the totals are printed as a summary on
+ *  standard error, or appended as one JSON line to a file.
+ *
+ *  Metrics are enabled by the GITLET_METRICS environment variable or by
+ *  a --metrics option before the command. A value of 1 or summary (or
+ *  --metrics alone) prints the summary; any other value (or
+ *  --metrics=FILE) names the file of JSON lines. When disabled, every
+ *  recording method returns after testing a single flag.
+ *
+ *  Counters may be updated from several threads at once, as while add
+ *  hashes files in parallel.
+ *
+ *  @author Maxim Kirby
+ */
+class Metrics {
+    /***************************************************************************************************
+     INSTANCE VARIABLES */
+
+    /** Environment variable enabling metrics. */
+    static final String ENV = "GITLET_METRICS";
+
+    /** Option enabling metrics, alone or followed by =FILE. */
+    static final String OPTION = "--metrics";
+
+    /** Setting meaning the summary is printed. */
+    private static final String SUMMARY = "summary";
+
+    /** True while metrics are being recorded. */
+    private static boolean enabled;
+
+    /** File receiving JSON lines, or null to print the summary. */
+    private static File jsonFile;
+
+    /** Time the current command started, in nanoseconds. */
+    private static long started;
+
+    /** Total nanoseconds spent in each phase, and counts of each event. */
+    private static final Map<String, LongAdder> PHASES = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> COUNTS = new ConcurrentHashMap<>();
+
+    /***************************************************************************************************
+     MAIN METHODS */
+
+    /** Starts recording a command if metrics are enabled by the
+     * environment or a leading --metrics option in ARGS. Returns ARGS
+     * without the option. */
+    static String[] begin(String[] args) {
+        String setting = System.getenv(ENV);
+        if (args.length > 0 && isOption(args[0])) {
+            setting = args[0].length() > OPTION.length()
+                      ? args[0].substring(OPTION.length() + 1) : SUMMARY;
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        enabled = setting != null && !setting.isEmpty();
+        if (enabled) {
+            boolean summary = setting.equals("1") || setting.equals(SUMMARY);
+            jsonFile = summary ? null : new File(setting);
+            PHASES.clear();
+            COUNTS.clear();
+            started = System.nanoTime();
+        }
+        return args;
+    }
+
+    /** Finishes recording the command COMMAND and reports its metrics. */
+    static void end(String command) {
+        if (!enabled) {
+            return;
+        }
+        enabled = false;
+        long total = System.nanoTime() - started;
+        if (jsonFile == null) {
+            printSummary(command, total);
+        } else {
+            appendJson(command, total);
+        }
+    }
+
+    /** Returns the current time to pass to time, or 0 if disabled. */
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /** Adds the time since START, from start, to the phase PHASE. */
+    static void time(String phase, long start) {
+        if (enabled) {
+            add(PHASES, phase, System.nanoTime() - start);
+        }
+    }
+
+    /** Counts one event NAME. */
+    static void count(String name) {
+        if (enabled) {
+            add(COUNTS, name, 1);
+        }
+    }
+
+    /** Counts N of event NAME, such as bytes. */
+    static void count(String name, long n) {
+        if (enabled) {
+            add(COUNTS, name, n);
+        }
+    }
+
+    /** Returns ARGS with the GITLET_METRICS setting of this process added
+     * as an option, so that a daemon running the command records it the
+     * same way. ARGS are unchanged if the setting is absent or ARGS
+     * already give one. */
+    static String[] forwardedArgs(String[] args) {
+        String setting = System.getenv(ENV);
+        if (setting == null || setting.isEmpty() || (args.length > 0 && isOption(args[0]))) {
+            return args;
+        }
+        if (!setting.equals("1") && !setting.equals(SUMMARY)) {
+            setting = new File(setting).getAbsolutePath();
+        }
+        String[] result = new String[args.length + 1];
+        result[0] = OPTION + "=" + setting;
+        System.arraycopy(args, 0, result, 1, args.length);
+        return result;
+    }
+
+    /***************************************************************************************************
+     HELPER METHODS */
+
+    /** Returns true if ARG is the --metrics option. */
+    private static boolean isOption(String arg) {
+        return arg.equals(OPTION) || arg.startsWith(OPTION + "=");
+    }
+
+    /** Adds N to the entry NAME of TOTALS. */
+    private static void add(Map<String, LongAdder> totals, String name, long n) {
+        totals.computeIfAbsent(name, k -> new LongAdder()).add(n);
+    }
+
+    /** Prints the metrics of COMMAND, which took TOTAL nanoseconds, to
+     * standard error. */
+    private static void printSummary(String command, long total) {
+        PrintStream err = System.err;
+        err.printf("gitlet metrics: %s took %.2f ms%n", command, total / 1e6);
+        for (Map.Entry<String, Long> phase : sorted(PHASES).entrySet()) {
+            err.printf("  %-28s %12.2f ms%n", phase.getKey(), phase.getValue() / 1e6);
+        }
+        for (Map.Entry<String, Long> count : sorted(COUNTS).entrySet()) {
+            err.printf("  %-28s %12d%n", count.getKey(), count.getValue());
+        }
+        err.flush();
+    }
+
+    /** Appends the metrics of COMMAND, which took TOTAL nanoseconds, to
+     * the JSON lines file. */
+    private static void appendJson(String command, long total) {
+        StringBuilder line = new StringBuilder(256);
+        line.append("{\"command\":\"").append(command.replace("\\", "\\\\").replace("\"", "\\\""))
+            .append("\",\"timestamp\":").append(System.currentTimeMillis())
+            .append(",\"total_ms\":").append(String.format(Locale.ROOT, "%.3f", total / 1e6))
+            .append(",\"phases_ms\":{");
+        String sep = "";
+        for (Map.Entry<String, Long> phase : sorted(PHASES).entrySet()) {
+            line.append(sep).append('"').append(phase.getKey()).append("\":")
+                .append(String.format(Locale.ROOT, "%.3f", phase.getValue() / 1e6));
+            sep = ",";
+        }
+        line.append("},\"counts\":{");
+        sep = "";
+        for (Map.Entry<String, Long> count : sorted(COUNTS).entrySet()) {
+            line.append(sep).append('"').append(count.getKey()).append("\":").append(count.getValue());
+            sep = ",";
+        }
+        line.append("}}\n");
+        try {
+            Files.write(jsonFile.toPath(), line.toString().getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the current values of TOTALS in order of name. */
+    private static TreeMap<String, Long> sorted(Map<String, LongAdder> totals) {
+        TreeMap<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : totals.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().sum());
+        }
+        return result;
+    }
+}
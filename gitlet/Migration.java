@@ -0,0 +1,159 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import static gitlet.Utils.*;
+
+/** Represents the upgrade of a repository saved by an older gitlet. **
+ *
+ *  Older versions of gitlet saved the whole repository, including every
+ *  Commit and Blob, as one Java-serialized object in the repository file.
+ *  The first time such a repository is loaded, Migration reads it back
+ *  through an ObjectInputStream that maps the saved classes onto mirrors
+ *  of their old fields. It then saves the contents of each Blob under its
+ *  old ID and each Commit, keeping its ID, parents and timestamp, with a
+ *  Tree built from its files. The branches, HEAD and stage are handed
+ *  back to be saved in the binary encoding of the repository state.
+ *
+ *  @author Maxim Kirby
+ */
+class Migration {
+    /***************************************************************************************************
+     INSTANCE VARIABLES */
+
+    /** The repository as an older gitlet saved it. */
+    private final LegacyRepository old;
+
+    /***************************************************************************************************
+     MAIN METHODS */
+
+    /** Constructor: reads the repository saved with Java serialization in
+     * BYTES. */
+    Migration(byte[] bytes) {
+        try (ObjectInputStream in = new LegacyInputStream(new ByteArrayInputStream(bytes))) {
+            old = (LegacyRepository) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException excp) {
+            throw error("Cannot read the repository saved by an older version of Gitlet.");
+        }
+    }
+
+    /** Returns true if BYTES start with the header of a Java serialization
+     * stream, as the repository file of an older gitlet does. */
+    static boolean isSerialized(byte[] bytes) {
+        return bytes.length >= 2 && (bytes[0] & 0xff) == 0xac && (bytes[1] & 0xff) == 0xed;
+    }
+
+    /** Saves every Blob and Commit of the old repository in OBJECTS, over
+     * the files the older gitlet left under the same IDs. */
+    void saveObjects(ObjectStore objects) {
+        for (LegacyBlob blob : old.blobSearch.values()) {
+            objects.putBlob(blob.id, blob.content);
+        }
+        for (LegacyCommit commit : old.commitSearch.values()) {
+            String tree = Tree.write(objects, commit.files);
+            objects.putCommit(new Commit(commit.id, commit.message, commit.timestamp,
+                                         commit.parents, tree));
+        }
+    }
+
+    /** Returns the branches of the old repository. */
+    TreeMap<String, String> getBranches() {
+        return old.branches;
+    }
+
+    /** Returns the current branch of the old repository. */
+    String getCurrBranch() {
+        return old.currBranch;
+    }
+
+    /** Returns the ID of the current Commit of the old repository. */
+    String getHead() {
+        return old.HEAD;
+    }
+
+    /** Returns the files staged for addition in the old repository. */
+    TreeMap<String, String> getAdd() {
+        return old.add;
+    }
+
+    /** Returns the files staged for removal in the old repository. */
+    TreeSet<String> getRm() {
+        return old.rm;
+    }
+
+    /***************************************************************************************************
+     HELPER CLASSES */
+
+    /** An ObjectInputStream reading the classes an older gitlet saved into
+     * the mirrors below, whose fields match theirs by name and type. */
+    private static class LegacyInputStream extends ObjectInputStream {
+        /** Saved class names and the mirrors read in their place. */
+        private static final Map<String, Class<?>> MIRRORS = new HashMap<>();
+
+        static {
+            MIRRORS.put("gitlet.Repository", LegacyRepository.class);
+            MIRRORS.put("gitlet.Commit", LegacyCommit.class);
+            MIRRORS.put("gitlet.Blob", LegacyBlob.class);
+        }
+
+        /** Constructor. */
+        LegacyInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor()
+                throws IOException, ClassNotFoundException {
+            ObjectStreamClass desc = super.readClassDescriptor();
+            Class<?> mirror = MIRRORS.get(desc.getName());
+            return mirror == null ? desc : ObjectStreamClass.lookup(mirror);
+        }
+    }
+
+    /** The fields of the repository as they were saved. */
+    private static class LegacyRepository implements Serializable {
+        /** Serialization version; the saved one is replaced by this class's
+         * own as the stream is read. */
+        private static final long serialVersionUID = 1L;
+
+        private TreeMap<String, String> branches;
+        private String currBranch;
+        private String HEAD;
+        private HashMap<String, LegacyCommit> commitSearch;
+        private HashMap<String, LegacyBlob> blobSearch;
+        private TreeMap<String, String> add;
+        private TreeSet<String> rm;
+    }
+
+    /** The fields of a Commit as they were saved. */
+    private static class LegacyCommit implements Serializable {
+        /** Serialization version; the saved one is replaced by this class's
+         * own as the stream is read. */
+        private static final long serialVersionUID = 1L;
+
+        private String id;
+        private String message;
+        private String timestamp;
+        private String[] parents;
+        private TreeMap<String, String> files;
+    }
+
+    /** The fields of a Blob as they were saved. */
+    private static class LegacyBlob implements Serializable {
+        /** Serialization version; the saved one is replaced by this class's
+         * own as the stream is read. */
+        private static final long serialVersionUID = 1L;
+
+        private String id;
+        private String name;
+        private byte[] content;
+    }
+}
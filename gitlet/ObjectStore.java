@@ -0,0 +1,885 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import static gitlet.Utils.*;
+
+/** Represents the gitlet object store. **
+ *
+ *  The object store reads and writes the Commits, Trees and Blobs saved in
+ *  the .gitlet directory. Objects are only decoded when a command asks for
+ *  them by ID, so the cost of a command depends on the objects it touches
+ *  rather than on the size of the whole repository. Recently used Commits
+ *  and Trees are kept in bounded LRU caches so that repeated lookups
+ *  within a command do not go back to disk. Blob contents are stored as
+ *  plain files and are streamed through the SHA1 digest on their way into
+ *  the store.
+ *
+ *  Files of at least chunkThreshold bytes are instead split into chunks
+ *  (see Chunker), each saved once under the SHA1 hash of its contents, and
+ *  the Blob is saved as a manifest listing its chunks. Versions of a large
+ *  file, and copies of it under other names, then share every chunk an
+ *  edit did not touch. Chunked Blobs have the same IDs as whole ones and
+ *  are never packed, so for large files this sharing of chunks takes the
+ *  place of the deltas packs store between versions of smaller ones.
+ *
+ *  New objects are written as loose files, one per object. The pack method
+ *  consolidates them into a single pack (see PackFile), and readers look
+ *  for an object among the loose files first and then in the packs, so
+ *  both kinds of storage can be used side by side. Within a pack, versions
+ *  of the same file are stored as binary deltas (see Delta) against the
+ *  next newer version.
+ *
+ *  @author Maxim Kirby
+ */
+class ObjectStore {
+    /***************************************************************************************************
+     INSTANCE VARIABLES */
+
+    /** Maximum number of Commits kept in memory. */
+    private static final int COMMIT_CACHE_SIZE = 1024;
+
+    /** Maximum number of Trees kept in memory. */
+    private static final int TREE_CACHE_SIZE = 4096;
+
+    /** Number of bytes in a raw object ID. */
+    private static final int ID_BYTES = 20;
+
+    /** Names of loose object files. */
+    private static final Pattern ID_PATTERN = Pattern.compile("[0-9a-f]{40}");
+
+    /** Smallest file saved as chunks by default. */
+    static final long DEFAULT_CHUNK_THRESHOLD = 1024 * 1024;
+
+    /** Version of the binary encoding of chunk manifests. */
+    private static final int MANIFEST_VERSION = 1;
+
+    /** Largest Blob stored as a delta, since deltas are built in memory. */
+    private static final long MAX_DELTA_SIZE = 16 * 1024 * 1024;
+
+    /** Longest chain of deltas between a Blob and a full copy. */
+    private static final int MAX_DELTA_DEPTH = 16;
+
+    /** Maximum number of bytes of rebuilt Blob contents kept in memory. */
+    private static final long BASE_CACHE_BYTES = 64 * 1024 * 1024;
+
+    /** Directories holding one file per object. */
+    private final File commitDir;
+    private final File treeDir;
+    private final File blobDir;
+
+    /** Directory holding one file per chunk, and its subdirectory holding
+     * the manifest of each chunked Blob. */
+    private final File chunkDir;
+    private final File manifestDir;
+
+    /** Directory holding pack and index files. */
+    private final File packDir;
+
+    /** Smallest file saved as chunks. */
+    private long chunkThreshold = DEFAULT_CHUNK_THRESHOLD;
+
+    /** Open packs, loaded on first use. */
+    private List<PackFile> packs;
+
+    /** Recently used Commits keyed by ID. */
+    private final LruCache<String, Commit> commitCache = new LruCache<>(COMMIT_CACHE_SIZE);
+
+    /** Recently used Trees keyed by ID. */
+    private final LruCache<String, Tree> treeCache = new LruCache<>(TREE_CACHE_SIZE);
+
+    /** Recently rebuilt Blob contents keyed by ID, and their total size. */
+    private final LinkedHashMap<String, byte[]> baseCache = new LinkedHashMap<>(16, 0.75f, true);
+    private long baseCacheBytes;
+
+    /***************************************************************************************************
+     MAIN METHODS */
+
+    /** Constructor. */
+    ObjectStore(File commits, File trees, File blobs, File chunks, File packDirectory) {
+        commitDir = commits;
+        treeDir = trees;
+        blobDir = blobs;
+        chunkDir = chunks;
+        manifestDir = join(chunks, "manifests");
+        packDir = packDirectory;
+    }
+
+    /** Sets the smallest file saved as chunks to THRESHOLD bytes. */
+    void setChunkThreshold(long threshold) {
+        chunkThreshold = threshold;
+    }
+
+    /** Returns the Commit with the given ID, or null if there is none. */
+    Commit getCommit(String id) {
+        if (id == null) {
+            return null;
+        }
+        Commit commit = commitCache.get(id);
+        if (commit != null) {
+            Metrics.count("cache.commit.hit");
+        } else {
+            Metrics.count("cache.commit.miss");
+            File path = join(commitDir, id);
+            if (Transaction.exists(path)) {
+                commit = Commit.decode(Transaction.read(path));
+            } else {
+                PackFile pack = findPacked(id, PackFile.COMMIT);
+                if (pack == null) {
+                    return null;
+                }
+                commit = Commit.decode(pack.read(pack.find(id)));
+            }
+            commitCache.put(id, commit);
+        }
+        return commit;
+    }
+
+    /** Returns true if a Commit with the given ID has been saved. */
+    boolean hasCommit(String id) {
+        if (id == null) {
+            return false;
+        }
+        if (commitCache.containsKey(id) || Transaction.exists(join(commitDir, id))) {
+            return true;
+        }
+        return findPacked(id, PackFile.COMMIT) != null;
+    }
+
+    /** Saves a Commit, overwriting any previous version with the same ID. */
+    void putCommit(Commit commit) {
+        Transaction.write(join(commitDir, commit.getId()), commit.encode());
+        commitCache.put(commit.getId(), commit);
+    }
+
+    /** Returns the Tree with the given ID. */
+    Tree getTree(String id) {
+        Tree tree = treeCache.get(id);
+        if (tree != null) {
+            Metrics.count("cache.tree.hit");
+            return tree;
+        }
+        Metrics.count("cache.tree.miss");
+        tree = readTree(id);
+        treeCache.put(id, tree);
+        return tree;
+    }
+
+    /** Returns the Tree with the given ID, read from disk without going
+     * through the cache, so that several threads may read Trees at once. */
+    Tree readTree(String id) {
+        File path = join(treeDir, id);
+        if (Transaction.exists(path)) {
+            return Tree.decode(id, Transaction.read(path));
+        }
+        PackFile pack = findPacked(id, PackFile.TREE);
+        if (pack == null) {
+            throw error("Missing tree %s.", id);
+        }
+        return Tree.decode(id, pack.read(pack.find(id)));
+    }
+
+    /** Saves TREE unless a Tree with its ID is already saved. */
+    void putTree(Tree tree) {
+        if (treeCache.containsKey(tree.getId())) {
+            return;
+        }
+        File path = join(treeDir, tree.getId());
+        if (!Transaction.exists(path) && findPacked(tree.getId(), PackFile.TREE) == null) {
+            treeDir.mkdir();
+            Transaction.write(path, tree.encode());
+        }
+        treeCache.put(tree.getId(), tree);
+    }
+
+    /** Returns IDs of all saved Commits, loose, packed or held by the open
+     * Transaction, in lexicographic order. */
+    List<String> commitIds() {
+        TreeSet<String> ids = new TreeSet<>(looseIds(commitDir));
+        ids.addAll(Transaction.heldIn(commitDir));
+        for (PackFile pack : packs()) {
+            for (int pos = 0; pos < pack.size(); pos += 1) {
+                if (pack.typeAt(pos) == PackFile.COMMIT) {
+                    ids.add(pack.idAt(pos));
+                }
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /** Returns the Blob with the given ID, or null if there is none. */
+    Blob getBlob(String id) {
+        return hasBlob(id) ? new Blob(id, this) : null;
+    }
+
+    /** Returns true if a Blob with the given ID has been saved. */
+    boolean hasBlob(String id) {
+        if (id == null) {
+            return false;
+        }
+        return Transaction.exists(join(blobDir, id)) || Transaction.exists(join(manifestDir, id))
+               || findPacked(id, PackFile.BLOB) != null;
+    }
+
+    /** Saves the contents of SOURCE as a Blob for the file NAME and returns
+     * it. Small files are held by the open Transaction and journaled with
+     * the rest of the command. Others are hashed and copied in a single
+     * streaming pass, so memory use does not depend on the size of the
+     * file, and synced on their own. */
+    Blob putBlob(File source, String name) {
+        long length = source.length();
+        if (length >= chunkThreshold) {
+            return putChunkedBlob(source, name);
+        }
+        if (Transaction.canHold(length)) {
+            byte[] contents = readContents(source);
+            MessageDigest md = sha1Digest();
+            md.update(name.getBytes(StandardCharsets.UTF_8));
+            md.update(contents);
+            String id = toHex(md.digest());
+            if (!hasBlob(id)) {
+                Metrics.count("blobs.written");
+                Transaction.write(join(blobDir, id), contents);
+            }
+            return new Blob(id, this);
+        }
+        File temp = null;
+        try {
+            // Stream contents into a temporary file while hashing them
+            temp = Files.createTempFile(blobDir.toPath(), TEMP_PREFIX, null).toFile();
+            MessageDigest md = sha1Digest();
+            md.update(name.getBytes(StandardCharsets.UTF_8));
+            try (InputStream in = Files.newInputStream(source.toPath());
+                 OutputStream out = Files.newOutputStream(temp.toPath())) {
+                copyStream(in, out, md);
+            }
+
+            // Move contents into place unless the Blob already exists, syncing
+            // them first so a crash never leaves a partial Blob under its ID
+            String id = toHex(md.digest());
+            File path = join(blobDir, id);
+            if (hasBlob(id)) {
+                temp.delete();
+            } else {
+                Metrics.count("blobs.written");
+                force(temp);
+                Files.move(temp.toPath(), path.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                Transaction.saved(path);
+            }
+            return new Blob(id, this);
+        } catch (IOException excp) {
+            if (temp != null) {
+                temp.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Saves CONTENTS as the Blob with the given ID, over any file left
+     * under that ID by an older version of gitlet (see Migration). */
+    void putBlob(String id, byte[] contents) {
+        Metrics.count("blobs.written");
+        Transaction.write(join(blobDir, id), contents);
+    }
+
+    /** Returns the ID SOURCE would have if saved as a Blob for the file
+     * NAME, streaming its contents through the digest without saving them. */
+    String hashBlob(File source, String name) {
+        Metrics.count("blobs.hashed");
+        MessageDigest md = sha1Digest();
+        md.update(name.getBytes(StandardCharsets.UTF_8));
+        try (InputStream in = Files.newInputStream(source.toPath())) {
+            copyStream(in, null, md);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return toHex(md.digest());
+    }
+
+    /** Returns the contents of the Blob with the given ID. Blobs stored
+     * as deltas are rebuilt from their base, and rebuilt contents are kept
+     * in a bounded cache so that walking a delta chain stays cheap. */
+    byte[] readBlob(String id) {
+        Metrics.count("blobs.read");
+        File path = join(blobDir, id);
+        if (Transaction.exists(path)) {
+            return Transaction.read(path);
+        }
+        File manifest = join(manifestDir, id);
+        if (Transaction.exists(manifest)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            copyChunks(manifest, out);
+            return out.toByteArray();
+        }
+        return readPacked(id);
+    }
+
+    /** Returns the contents of the packed Blob with the given ID. Blobs
+     * may be read from several threads at once during checkout, so access
+     * to the cache of rebuilt contents is synchronized. */
+    private synchronized byte[] readPacked(String id) {
+        byte[] content = baseCache.get(id);
+        if (content != null) {
+            Metrics.count("cache.delta.hit");
+            return content;
+        }
+        Metrics.count("cache.delta.miss");
+        PackFile pack = findPacked(id, PackFile.BLOB);
+        if (pack == null) {
+            throw error("Missing blob %s.", id);
+        }
+        int pos = pack.find(id);
+        if (pack.typeAt(pos) != PackFile.BLOB_DELTA) {
+            return pack.read(pos);
+        }
+
+        // Rebuild from base, keeping both for later versions in the chain
+        Metrics.count("blobs.rebuilt");
+        ByteBuffer record = ByteBuffer.wrap(pack.read(pos));
+        byte[] baseId = new byte[ID_BYTES];
+        record.get(baseId);
+        byte[] base = readBlob(toHex(baseId));
+        cacheBase(toHex(baseId), base);
+        content = Delta.apply(base, record);
+        cacheBase(id, content);
+        return content;
+    }
+
+    /** Writes the contents of the Blob with the given ID to FILE without
+     * loading them into memory. */
+    void copyBlob(String id, File file) {
+        Metrics.count("blobs.copied");
+        File path = join(blobDir, id);
+        byte[] held = Transaction.held(path);
+        if (held != null) {
+            writeContents(file, held);
+            return;
+        }
+        if (path.isFile()) {
+            copyContents(path, file);
+            return;
+        }
+        File manifest = join(manifestDir, id);
+        if (Transaction.exists(manifest)) {
+            try (OutputStream out = Files.newOutputStream(file.toPath())) {
+                copyChunks(manifest, out);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            return;
+        }
+        PackFile pack = findPacked(id, PackFile.BLOB);
+        if (pack == null) {
+            throw error("Missing blob %s.", id);
+        }
+        int pos = pack.find(id);
+        if (pack.typeAt(pos) == PackFile.BLOB_DELTA) {
+            writeContents(file, readBlob(id));
+        } else {
+            pack.copyTo(pos, file);
+        }
+    }
+
+    /** Consolidates all loose objects and existing packs into a single new
+     * pack, then removes the loose files and old packs it replaces.
+     * Versions of a file are stored as deltas against the next newer
+     * version, with chains at most MAX_DELTA_DEPTH long. Returns the
+     * number of objects in the new pack. */
+    int pack() {
+        return pack(Collections.emptySet());
+    }
+
+    /** Deletes every saved object whose ID is not in LIVE and that was
+     * saved before CUTOFF, in milliseconds since the epoch, and every
+     * chunk no remaining manifest lists. Packed objects count as saved
+     * when their pack was written; if any of them is deleted, the packs
+     * are rewritten as by pack. Temporary files left by interrupted writes
+     * are deleted once they are as old. Returns the number of objects
+     * deleted. */
+    int prune(Set<String> live, long cutoff) {
+        Transaction.checkpoint();
+
+        // Find unreachable loose objects and manifests past the cutoff
+        Set<String> dead = new HashSet<>();
+        for (File dir : Arrays.asList(commitDir, treeDir, blobDir, manifestDir)) {
+            for (String id : looseIds(dir)) {
+                if (!live.contains(id) && join(dir, id).lastModified() < cutoff) {
+                    dead.add(id);
+                }
+            }
+        }
+
+        // Packed objects are only removed by rewriting the packs
+        boolean repack = false;
+        for (PackFile pack : packs()) {
+            if (pack.getPackPath().lastModified() >= cutoff) {
+                continue;
+            }
+            for (int pos = 0; pos < pack.size(); pos += 1) {
+                if (!live.contains(pack.idAt(pos))) {
+                    dead.add(pack.idAt(pos));
+                    repack = true;
+                }
+            }
+        }
+        if (repack) {
+            pack(dead);
+        } else {
+            for (File dir : Arrays.asList(commitDir, treeDir, blobDir)) {
+                for (String id : looseIds(dir)) {
+                    if (dead.contains(id)) {
+                        join(dir, id).delete();
+                    }
+                }
+            }
+        }
+
+        // Chunks are kept while any remaining manifest lists them
+        Set<String> chunks = new HashSet<>();
+        for (String id : looseIds(manifestDir)) {
+            if (dead.contains(id)) {
+                join(manifestDir, id).delete();
+            } else {
+                chunks.addAll(chunkIds(join(manifestDir, id)));
+            }
+        }
+        for (String id : looseIds(chunkDir)) {
+            if (!chunks.contains(id) && join(chunkDir, id).lastModified() < cutoff) {
+                join(chunkDir, id).delete();
+                dead.add(id);
+            }
+        }
+
+        // Drop stale temporary files and every cached copy of a deleted object
+        for (File dir : Arrays.asList(commitDir, treeDir, blobDir, chunkDir, manifestDir,
+                                      packDir)) {
+            List<String> names = plainFilenamesIn(dir);
+            if (names != null) {
+                for (String name : names) {
+                    File temp = join(dir, name);
+                    if (name.startsWith(TEMP_PREFIX) && temp.lastModified() < cutoff) {
+                        temp.delete();
+                    }
+                }
+            }
+        }
+        commitCache.clear();
+        treeCache.clear();
+        baseCache.clear();
+        baseCacheBytes = 0;
+        return dead.size();
+    }
+
+    /** Returns the number of bytes taken up on disk by saved objects,
+     * chunks and packs. */
+    long diskUsage() {
+        long total = 0;
+        for (File dir : Arrays.asList(commitDir, treeDir, blobDir, chunkDir, manifestDir, packDir)) {
+            List<String> names = plainFilenamesIn(dir);
+            if (names != null) {
+                for (String name : names) {
+                    total += join(dir, name).length();
+                }
+            }
+        }
+        return total;
+    }
+
+    /***************************************************************************************************
+     HELPER METHODS */
+
+    /** Consolidates all loose objects and existing packs, leaving out the
+     * objects whose IDs are in DROPPED, into a single new pack, then
+     * removes the loose files and old packs it replaces. Returns the
+     * number of objects in the new pack. */
+    private int pack(Set<String> dropped) {
+        Transaction.checkpoint();
+        packDir.mkdir();
+        PackFile.Writer writer = new PackFile.Writer(packDir);
+
+        // Commits go in as they are, loose copies taking precedence
+        List<String> commits = commitIds();
+        commits.removeAll(dropped);
+        for (String id : commits) {
+            writer.add(id, PackFile.COMMIT, openCommit(id));
+        }
+
+        // Find the file name of every blob and when it was first committed,
+        // walking trees oldest commit first: a tree seen before holds only
+        // blobs seen before, so no tree is walked twice
+        List<Commit> byTime = new ArrayList<>();
+        for (String id : commits) {
+            byTime.add(getCommit(id));
+        }
+        byTime.sort(Comparator.comparingLong(Commit::getTime));
+        Map<String, String> names = new HashMap<>();
+        Map<String, Long> times = new HashMap<>();
+        Set<String> walked = new HashSet<>();
+        for (Commit commit : byTime) {
+            findBlobNames(commit.getTree(), "", commit.getTime(), walked, names, times);
+        }
+
+        // Trees go in as they are
+        for (String id : objectIds(treeDir, PackFile.TREE)) {
+            if (!dropped.contains(id)) {
+                writer.add(id, PackFile.TREE, openTree(id));
+            }
+        }
+
+        // Group versions of each file, newest first; uncommitted blobs stay whole
+        Map<String, List<String>> versions = new TreeMap<>();
+        for (String id : blobIds()) {
+            String name = names.get(id);
+            if (dropped.contains(id)) {
+                continue;
+            } else if (name == null) {
+                writer.add(id, PackFile.BLOB, openBlob(id));
+            } else {
+                versions.computeIfAbsent(name, k -> new ArrayList<>()).add(id);
+            }
+        }
+        for (List<String> ids : versions.values()) {
+            ids.sort(Comparator.comparing((String id) -> times.get(id)).reversed());
+            packVersions(writer, ids);
+        }
+        File newIndex = writer.finish();
+
+        // Remove everything that now lives in the new pack
+        for (PackFile pack : packs()) {
+            pack.close();
+            File oldPack = pack.getPackPath();
+            String name = oldPack.getName();
+            File oldIndex = join(packDir, name.substring(0, name.length()
+                                 - PackFile.PACK_EXT.length()) + PackFile.INDEX_EXT);
+            if (!oldIndex.equals(newIndex)) {
+                oldIndex.delete();
+                oldPack.delete();
+            }
+        }
+        for (String id : looseIds(commitDir)) {
+            join(commitDir, id).delete();
+        }
+        for (String id : looseIds(treeDir)) {
+            join(treeDir, id).delete();
+        }
+        for (String id : looseIds(blobDir)) {
+            join(blobDir, id).delete();
+        }
+        packs = null;
+        baseCache.clear();
+        baseCacheBytes = 0;
+        return writer.size();
+    }
+
+    /** Returns the open packs, loading their indexes on first use. Blobs
+     * may be saved from several threads at once, so loading is synchronized. */
+    private synchronized List<PackFile> packs() {
+        if (packs == null) {
+            packs = new ArrayList<>();
+            List<String> names = plainFilenamesIn(packDir);
+            if (names != null) {
+                for (String name : names) {
+                    if (name.endsWith(PackFile.INDEX_EXT) && !name.startsWith(TEMP_PREFIX)) {
+                        packs.add(new PackFile(join(packDir, name)));
+                    }
+                }
+            }
+        }
+        return packs;
+    }
+
+    /** Returns the pack holding an object with the given ID and TYPE, or
+     * null if no pack does. Blobs stored as deltas count as Blobs. */
+    private PackFile findPacked(String id, int type) {
+        for (PackFile pack : packs()) {
+            int pos = pack.find(id);
+            if (pos >= 0 && (pack.typeAt(pos) == PackFile.BLOB_DELTA ? PackFile.BLOB
+                             : pack.typeAt(pos)) == type) {
+                return pack;
+            }
+        }
+        return null;
+    }
+
+    /** Writes the versions IDS of one file to WRITER, newest first. Each
+     * version becomes a delta against the one before it when that saves
+     * at least half its size, until the chain is MAX_DELTA_DEPTH long. */
+    private void packVersions(PackFile.Writer writer, List<String> ids) {
+        String baseId = null;
+        byte[] base = null;
+        int depth = 0;
+        for (String id : ids) {
+            // Files too large to hold in memory are never deltified
+            if (!fitsInDelta(id)) {
+                writer.add(id, PackFile.BLOB, openBlob(id));
+                baseId = null;
+                base = null;
+                continue;
+            }
+
+            byte[] content = readBlob(id);
+            byte[] delta = null;
+            if (base != null && depth < MAX_DELTA_DEPTH) {
+                delta = Delta.create(base, content);
+                if (delta.length + ID_BYTES >= content.length / 2) {
+                    delta = null;
+                }
+            }
+            if (delta != null) {
+                ByteArrayOutputStream record = new ByteArrayOutputStream(ID_BYTES + delta.length);
+                record.writeBytes(fromHex(baseId));
+                record.writeBytes(delta);
+                writer.add(id, PackFile.BLOB_DELTA, new ByteArrayInputStream(record.toByteArray()));
+                depth += 1;
+            } else {
+                writer.add(id, PackFile.BLOB, new ByteArrayInputStream(content));
+                depth = 0;
+            }
+            baseId = id;
+            base = content;
+        }
+    }
+
+    /** Saves the contents of SOURCE as a chunked Blob for the file NAME
+     * and returns it, saving each chunk not saved already. */
+    private Blob putChunkedBlob(File source, String name) {
+        MessageDigest md = sha1Digest();
+        md.update(name.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        long[] count = new long[1];
+        try {
+            long size;
+            try (InputStream in = Files.newInputStream(source.toPath())) {
+                size = Chunker.split(in, (buffer, offset, length) -> {
+                    md.update(buffer, offset, length);
+                    MessageDigest chunkMd = sha1Digest();
+                    chunkMd.update(buffer, offset, length);
+                    byte[] chunkId = chunkMd.digest();
+                    putChunk(toHex(chunkId), buffer, offset, length);
+                    entries.writeBytes(chunkId);
+                    writeVarint(entries, length);
+                    count[0] += 1;
+                });
+            }
+
+            // Save the manifest unless the Blob already exists
+            String id = toHex(md.digest());
+            if (!hasBlob(id)) {
+                Metrics.count("blobs.written");
+                ByteArrayOutputStream manifest = new ByteArrayOutputStream(16 + entries.size());
+                manifest.write(MANIFEST_VERSION);
+                writeVarint(manifest, size);
+                writeVarint(manifest, count[0]);
+                manifest.writeBytes(entries.toByteArray());
+                manifestDir.mkdirs();
+                Transaction.write(join(manifestDir, id), manifest.toByteArray());
+            }
+            return new Blob(id, this);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Saves LENGTH bytes of BUFFER from OFFSET as the chunk with the
+     * given ID unless it is already saved. */
+    private void putChunk(String id, byte[] buffer, int offset, int length) {
+        File path = join(chunkDir, id);
+        if (path.isFile()) {
+            Metrics.count("chunks.reused");
+            return;
+        }
+        Metrics.count("chunks.written");
+        Metrics.count("chunks.bytes", length);
+        chunkDir.mkdirs();
+        writeDurably(path, buffer, offset, length);
+        Transaction.saved(path);
+    }
+
+    /** Returns the IDs of the chunks listed in the manifest file MANIFEST. */
+    private List<String> chunkIds(File manifest) {
+        ByteBuffer in = ByteBuffer.wrap(Transaction.read(manifest));
+        if (in.get() != MANIFEST_VERSION) {
+            throw error("Unknown chunk manifest format.");
+        }
+        readVarint(in);
+        long count = readVarint(in);
+        List<String> ids = new ArrayList<>();
+        for (long i = 0; i < count; i += 1) {
+            ids.add(readId(in));
+            readVarint(in);
+        }
+        return ids;
+    }
+
+    /** Writes the chunks listed in the manifest file MANIFEST to OUT in order. */
+    private void copyChunks(File manifest, OutputStream out) {
+        ByteBuffer in = ByteBuffer.wrap(Transaction.read(manifest));
+        if (in.get() != MANIFEST_VERSION) {
+            throw error("Unknown chunk manifest format.");
+        }
+        readVarint(in);
+        long count = readVarint(in);
+        try {
+            for (long i = 0; i < count; i += 1) {
+                String chunkId = readId(in);
+                readVarint(in);
+                try (InputStream chunk = Files.newInputStream(join(chunkDir, chunkId).toPath())) {
+                    copyStream(chunk, out, null);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns true if the Blob with the given ID is small enough to be
+     * stored as a delta. */
+    private boolean fitsInDelta(String id) {
+        File path = join(blobDir, id);
+        if (path.isFile()) {
+            return path.length() <= MAX_DELTA_SIZE;
+        }
+        PackFile pack = findPacked(id, PackFile.BLOB);
+        int pos = pack.find(id);
+        return pack.typeAt(pos) == PackFile.BLOB_DELTA || pack.lengthAt(pos) <= MAX_DELTA_SIZE;
+    }
+
+    /** Returns a stream over the saved form of the Commit with the given ID. */
+    private InputStream openCommit(String id) {
+        File path = join(commitDir, id);
+        byte[] held = Transaction.held(path);
+        if (held != null) {
+            return new ByteArrayInputStream(held);
+        }
+        if (path.isFile()) {
+            return openFile(path);
+        }
+        PackFile pack = findPacked(id, PackFile.COMMIT);
+        return pack.open(pack.find(id));
+    }
+
+    /** Returns a stream over the saved form of the Tree with the given ID. */
+    private InputStream openTree(String id) {
+        File path = join(treeDir, id);
+        if (path.isFile()) {
+            return openFile(path);
+        }
+        PackFile pack = findPacked(id, PackFile.TREE);
+        return pack.open(pack.find(id));
+    }
+
+    /** Records in NAMES and TIMES the path, below PREFIX, and the commit
+     * time TIME of every Blob in the Tree with the given ID that has no
+     * entry yet, skipping Trees already in WALKED. */
+    private void findBlobNames(String id, String prefix, long time, Set<String> walked,
+                               Map<String, String> names, Map<String, Long> times) {
+        if (!walked.add(id)) {
+            return;
+        }
+        Tree tree = getTree(id);
+        for (Map.Entry<String, String> file : tree.getFiles().entrySet()) {
+            if (times.putIfAbsent(file.getValue(), time) == null) {
+                names.put(file.getValue(), prefix + file.getKey());
+            }
+        }
+        for (Map.Entry<String, String> sub : tree.getTrees().entrySet()) {
+            findBlobNames(sub.getValue(), prefix + sub.getKey() + "/", time, walked, names, times);
+        }
+    }
+
+    /** Returns a stream over the contents of the Blob with the given ID. */
+    private InputStream openBlob(String id) {
+        File path = join(blobDir, id);
+        if (path.isFile()) {
+            return openFile(path);
+        }
+        PackFile pack = findPacked(id, PackFile.BLOB);
+        int pos = pack.find(id);
+        if (pack.typeAt(pos) == PackFile.BLOB_DELTA) {
+            return new ByteArrayInputStream(readBlob(id));
+        }
+        return pack.open(pos);
+    }
+
+    /** Returns a stream over the contents of FILE. */
+    private InputStream openFile(File file) {
+        try {
+            return Files.newInputStream(file.toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns IDs of all saved Blobs, loose or packed. */
+    private Set<String> blobIds() {
+        return objectIds(blobDir, PackFile.BLOB);
+    }
+
+    /** Returns IDs of all saved objects of TYPE, loose in DIR or packed.
+     * Blobs stored as deltas count as Blobs. */
+    private Set<String> objectIds(File dir, int type) {
+        Set<String> ids = new TreeSet<>(looseIds(dir));
+        for (PackFile pack : packs()) {
+            for (int pos = 0; pos < pack.size(); pos += 1) {
+                int packed = pack.typeAt(pos);
+                if ((packed == PackFile.BLOB_DELTA ? PackFile.BLOB : packed) == type) {
+                    ids.add(pack.idAt(pos));
+                }
+            }
+        }
+        return ids;
+    }
+
+    /** Keeps the reconstructed CONTENT of the Blob with the given ID,
+     * evicting the least recently used contents beyond BASE_CACHE_BYTES. */
+    private void cacheBase(String id, byte[] content) {
+        if (content.length > BASE_CACHE_BYTES || baseCache.containsKey(id)) {
+            return;
+        }
+        baseCache.put(id, content);
+        baseCacheBytes += content.length;
+        Iterator<byte[]> eldest = baseCache.values().iterator();
+        while (baseCacheBytes > BASE_CACHE_BYTES) {
+            baseCacheBytes -= eldest.next().length;
+            eldest.remove();
+        }
+    }
+
+    /** Returns IDs of the loose objects in DIR, skipping temporary files
+     * and anything else not named by a full hexadecimal ID. */
+    private List<String> looseIds(File dir) {
+        List<String> ids = new ArrayList<>();
+        List<String> names = plainFilenamesIn(dir);
+        if (names != null) {
+            for (String name : names) {
+                if (ID_PATTERN.matcher(name).matches()) {
+                    ids.add(name);
+                }
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,392 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import static gitlet.Utils.*;
+
+/** Represents a gitlet pack. **
+ *
+ *  A pack consolidates many Commits, Trees and Blobs into a single data file so
+ *  that reading an object costs one lookup and one positioned read instead
+ *  of opening a loose file per object. Every pack comes with an index file
+ *  holding the IDs of its objects in sorted order, along with the type,
+ *  offset and length of each object in the data file. The index is
+ *  memory-mapped and searched through a fan-out table followed by a binary
+ *  search, so a lookup only touches a few pages however large the pack is.
+ *
+ *  Index layout: magic, version and object count, then 256 cumulative
+ *  counts of IDs by first byte, then one fixed-size record per object of
+ *  [20-byte ID][type][offset][length], sorted by ID.
+ *
+ *  @author Maxim Kirby
+ */
+class PackFile {
+    /***************************************************************************************************
+     INSTANCE VARIABLES */
+
+    /** Types of objects held in a pack. */
+    static final int COMMIT = 1;
+    static final int BLOB = 2;
+
+    /** Type of a Blob stored as the raw ID of its base followed by a Delta. */
+    static final int BLOB_DELTA = 3;
+
+    /** Type of a Tree. */
+    static final int TREE = 4;
+
+    /** File name extensions of pack data and index files. */
+    static final String PACK_EXT = ".pack";
+    static final String INDEX_EXT = ".idx";
+
+    /** Magic numbers and format version of pack files. */
+    private static final int PACK_MAGIC = 0x4750414b;
+    private static final int INDEX_MAGIC = 0x47494458;
+    private static final int VERSION = 1;
+
+    /** Sizes of the parts of an index file. */
+    private static final int ID_BYTES = 20;
+    private static final int HEADER_SIZE = 12;
+    private static final int FANOUT_SIZE = 256 * 4;
+    private static final int RECORD_SIZE = 40;
+
+    /** Pack data file. */
+    private final File packPath;
+
+    /** Memory-mapped index file. */
+    private final MappedByteBuffer index;
+
+    /** Number of objects in this pack. */
+    private final int count;
+
+    /** Open channel onto the pack data file. */
+    private final FileChannel data;
+
+    /***************************************************************************************************
+     MAIN METHODS */
+
+    /** Opens the pack whose index file is INDEXPATH. */
+    PackFile(File indexPath) {
+        String name = indexPath.getName();
+        packPath = join(indexPath.getParentFile(),
+                        name.substring(0, name.length() - INDEX_EXT.length()) + PACK_EXT);
+        try (FileChannel channel = FileChannel.open(indexPath.toPath(), StandardOpenOption.READ)) {
+            index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (index.getInt(0) != INDEX_MAGIC || index.getInt(4) != VERSION) {
+                throw error("Corrupt pack index %s.", name);
+            }
+            count = index.getInt(8);
+            data = FileChannel.open(packPath.toPath(), StandardOpenOption.READ);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the number of objects in this pack. */
+    int size() {
+        return count;
+    }
+
+    /** Returns the pack data file. */
+    File getPackPath() {
+        return packPath;
+    }
+
+    /** Returns the position of the object with the given ID in the index,
+     * or -1 if this pack does not hold it. */
+    int find(String id) {
+        if (id.length() != UID_LENGTH) {
+            return -1;
+        }
+        byte[] key = fromHex(id);
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : fanout(first - 1);
+        int hi = fanout(first) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareId(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the ID of the object at position POS of the index. */
+    String idAt(int pos) {
+        byte[] id = new byte[ID_BYTES];
+        index.get(record(pos), id);
+        return toHex(id);
+    }
+
+    /** Returns the type of the object at position POS of the index. */
+    int typeAt(int pos) {
+        return index.getInt(record(pos) + ID_BYTES);
+    }
+
+    /** Returns the length of the object at position POS of the index. */
+    long lengthAt(int pos) {
+        return index.getLong(record(pos) + ID_BYTES + 12);
+    }
+
+    /** Returns the contents of the object at position POS of the index. */
+    byte[] read(int pos) {
+        long length = lengthAt(pos);
+        if (length > Integer.MAX_VALUE) {
+            throw error("Object too large to read into memory.");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        long offset = offsetAt(pos);
+        try {
+            while (buffer.hasRemaining()) {
+                if (data.read(buffer, offset + buffer.position()) < 0) {
+                    throw error("Truncated pack %s.", packPath.getName());
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return buffer.array();
+    }
+
+    /** Returns a stream over the contents of the object at position POS
+     * of the index. */
+    InputStream open(int pos) {
+        return new RegionInputStream(data, offsetAt(pos), lengthAt(pos));
+    }
+
+    /** Copies the contents of the object at position POS of the index to
+     * FILE, creating or overwriting it as needed. */
+    void copyTo(int pos, File file) {
+        long offset = offsetAt(pos);
+        long length = lengthAt(pos);
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long done = 0;
+            while (done < length) {
+                done += data.transferTo(offset + done, length - done, out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Closes the pack data file. */
+    void close() {
+        try {
+            data.close();
+        } catch (IOException excp) {
+            // Nothing left to release
+        }
+    }
+
+    /***************************************************************************************************
+     HELPER METHODS */
+
+    /** Returns the number of IDs whose first byte is at most B. */
+    private int fanout(int b) {
+        return index.getInt(HEADER_SIZE + 4 * b);
+    }
+
+    /** Returns the offset of the index record at position POS. */
+    private int record(int pos) {
+        return HEADER_SIZE + FANOUT_SIZE + pos * RECORD_SIZE;
+    }
+
+    /** Returns the offset in the pack data file of the object at POS. */
+    private long offsetAt(int pos) {
+        return index.getLong(record(pos) + ID_BYTES + 4);
+    }
+
+    /** Compares the ID at position POS of the index with KEY as unsigned
+     * bytes. */
+    private int compareId(int pos, byte[] key) {
+        int start = record(pos);
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int cmp = (index.get(start + i) & 0xff) - (key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /***************************************************************************************************
+     WRITING PACKS */
+
+    /** Writes a new pack into a directory. Objects are appended one at a
+     * time with add, and finish writes the sorted index and moves both
+     * files into place under a name derived from the IDs they hold. */
+    static class Writer {
+
+        /** Directory receiving the pack. */
+        private final File dir;
+
+        /** Temporary pack data file and its output stream. */
+        private final File temp;
+        private final OutputStream out;
+
+        /** Current length of the pack data file. */
+        private long offset;
+
+        /** Index records of the objects written so far. */
+        private final List<Entry> entries = new ArrayList<>();
+
+        /** Starts a new pack in DIR. */
+        Writer(File dir) {
+            this.dir = dir;
+            try {
+                temp = Files.createTempFile(dir.toPath(), "tmp-", PACK_EXT).toFile();
+                out = new BufferedOutputStream(Files.newOutputStream(temp.toPath()), BUFFER_SIZE);
+                DataOutputStream header = new DataOutputStream(out);
+                header.writeInt(PACK_MAGIC);
+                header.writeInt(VERSION);
+                offset = 8;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Appends the object ID of the given TYPE, reading its contents
+         * from IN, which is closed afterwards. */
+        void add(String id, int type, InputStream in) {
+            try (in) {
+                long length = copyStream(in, out, null);
+                entries.add(new Entry(id, type, offset, length));
+                offset += length;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Returns the number of objects added so far. */
+        int size() {
+            return entries.size();
+        }
+
+        /** Writes the index and moves the pack into place, syncing both
+         * files and the directory, so the objects they hold may be deleted
+         * from anywhere else. Returns the index file of the new pack. */
+        File finish() {
+            try {
+                out.close();
+                entries.sort(Comparator.comparing(e -> e.id));
+
+                // Name pack after the IDs it holds
+                MessageDigest md = sha1Digest();
+                for (Entry e : entries) {
+                    md.update(fromHex(e.id));
+                }
+                String name = "pack-" + toHex(md.digest());
+
+                // Write index with fan-out table and sorted records
+                File indexTemp = Files.createTempFile(dir.toPath(), "tmp-", INDEX_EXT).toFile();
+                try (DataOutputStream idx = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(indexTemp.toPath()), BUFFER_SIZE))) {
+                    idx.writeInt(INDEX_MAGIC);
+                    idx.writeInt(VERSION);
+                    idx.writeInt(entries.size());
+                    int[] fanout = new int[256];
+                    for (Entry e : entries) {
+                        fanout[Integer.parseInt(e.id.substring(0, 2), 16)] += 1;
+                    }
+                    int total = 0;
+                    for (int count : fanout) {
+                        total += count;
+                        idx.writeInt(total);
+                    }
+                    for (Entry e : entries) {
+                        idx.write(fromHex(e.id));
+                        idx.writeInt(e.type);
+                        idx.writeLong(e.offset);
+                        idx.writeLong(e.length);
+                    }
+                }
+
+                // Data goes in first so an index never names a missing pack
+                File packPath = join(dir, name + PACK_EXT);
+                File indexPath = join(dir, name + INDEX_EXT);
+                force(temp);
+                force(indexTemp);
+                Files.move(temp.toPath(), packPath.toPath(),
+                           StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Files.move(indexTemp.toPath(), indexPath.toPath(),
+                           StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                force(dir);
+                return indexPath;
+            } catch (IOException excp) {
+                temp.delete();
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Index record of an object written to the pack. */
+        private static class Entry {
+            final String id;
+            final int type;
+            final long offset;
+            final long length;
+
+            Entry(String id, int type, long offset, long length) {
+                this.id = id;
+                this.type = type;
+                this.offset = offset;
+                this.length = length;
+            }
+        }
+    }
+
+    /** An InputStream over a region of a FileChannel, read with positioned
+     * reads so that several streams may share one channel. */
+    private static class RegionInputStream extends InputStream {
+
+        /** Channel being read. */
+        private final FileChannel channel;
+
+        /** Next position to read and end of the region. */
+        private long position;
+        private final long end;
+
+        RegionInputStream(FileChannel channel, long offset, long length) {
+            this.channel = channel;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int n = (int) Math.min(len, end - position);
+            n = channel.read(ByteBuffer.wrap(b, off, n), position);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+    }
+}
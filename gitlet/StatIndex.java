@@ -0,0 +1,226 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import static gitlet.Utils.*;
+
+/** Represents the gitlet stat cache. **
+ *
+ *  The stat cache remembers, for every file gitlet has hashed, the
+ *  modification time, size and file key (device and inode) the file had
+ *  when it was hashed, along with the resulting Blob ID. As long as the
+ *  stat data of a file is unchanged its Blob ID is taken from the cache,
+ *  so commands like status only rehash the files that were actually
+ *  touched.
+ *
+ *  A file modified in the same clock tick as the cache was saved could
+ *  keep its old stat data, so entries whose modification time is not
+ *  older than the cache file itself are treated as racy and rehashed.
+ *  Racy entries are also dropped whenever the cache is saved, as git
+ *  smudges them: otherwise a later save would make them look older than
+ *  the cache, and a same-size edit made within their tick would go
+ *  unnoticed from then on.
+ *
+ *  @author Maxim Kirby
+ */
+class StatIndex {
+    /***************************************************************************************************
+     INSTANCE VARIABLES */
+
+    /** Magic number and format version of the cache file. */
+    private static final int MAGIC = 0x47535458;
+    private static final int VERSION = 1;
+
+    /** File the cache is saved in. */
+    private final File path;
+
+    /** Modification time of the cache file when it was loaded, in nanoseconds. */
+    private long savedAt;
+
+    /** Cached stat data keyed by file name. */
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    /** True if entries changed since the cache was loaded. */
+    private boolean dirty;
+
+    /***************************************************************************************************
+     MAIN METHODS */
+
+    /** Loads the cache saved in FILE, or starts an empty one. */
+    StatIndex(File file) {
+        path = file;
+        if (!path.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(path.toPath()), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            savedAt = Files.getLastModifiedTime(path.toPath()).to(TimeUnit.NANOSECONDS);
+            int count = in.readInt();
+            for (int i = 0; i < count; i += 1) {
+                String name = in.readUTF();
+                long mtime = in.readLong();
+                long size = in.readLong();
+                String key = in.readUTF();
+                byte[] id = new byte[UID_LENGTH / 2];
+                in.readFully(id);
+                entries.put(name, new Entry(mtime, size, key, toHex(id)));
+            }
+        } catch (IOException excp) {
+            // A damaged cache only costs rehashing
+            entries.clear();
+        }
+    }
+
+    /** Returns the Blob ID FILE would have if added under NAME, or null if
+     * FILE does not exist. Only rehashes FILE if its stat data changed. */
+    String blobId(String name, File file, ObjectStore objects) {
+        BasicFileAttributes attrs = stat(file);
+        if (attrs == null) {
+            remove(name);
+            return null;
+        }
+        String cached = cached(name, attrs);
+        if (cached != null) {
+            return cached;
+        }
+        String id = objects.hashBlob(file, name);
+        entries.put(name, new Entry(attrs, id));
+        dirty = true;
+        return id;
+    }
+
+    /** Returns the cached Blob ID of FILE under NAME, or null if FILE is
+     * missing or its stat data changed since it was last hashed. */
+    String cachedBlobId(String name, File file) {
+        BasicFileAttributes attrs = stat(file);
+        return attrs == null ? null : cached(name, attrs);
+    }
+
+    /** Records that FILE, under NAME, currently holds the Blob BLOBID. */
+    void update(String name, File file, String blobId) {
+        BasicFileAttributes attrs = stat(file);
+        if (attrs == null) {
+            remove(name);
+        } else {
+            entries.put(name, new Entry(attrs, blobId));
+            dirty = true;
+        }
+    }
+
+    /** Forgets the file NAME. */
+    void remove(String name) {
+        if (entries.remove(name) != null) {
+            dirty = true;
+        }
+    }
+
+    /** Saves the cache if it changed, replacing the old file atomically.
+     * Entries that are racy against the new file are dropped, and the file
+     * is written again without them. */
+    void save() {
+        if (!dirty) {
+            return;
+        }
+        File temp = join(path.getParentFile(), path.getName() + ".tmp");
+        try {
+            writeTo(temp);
+            long writtenAt = Files.getLastModifiedTime(temp.toPath()).to(TimeUnit.NANOSECONDS);
+            if (entries.values().removeIf(entry -> entry.mtime >= writtenAt)) {
+                Metrics.count("cache.stat.smudged");
+                writeTo(temp);
+            }
+            Files.move(temp.toPath(), path.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            savedAt = Files.getLastModifiedTime(path.toPath()).to(TimeUnit.NANOSECONDS);
+            dirty = false;
+        } catch (IOException excp) {
+            temp.delete();
+        }
+    }
+
+    /***************************************************************************************************
+     HELPER METHODS */
+
+    /** Writes every entry to FILE. */
+    private void writeTo(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file.toPath()), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.mtime);
+                out.writeLong(entry.size);
+                out.writeUTF(entry.fileKey);
+                out.write(fromHex(entry.blobId));
+            }
+        }
+    }
+
+    /** Returns the cached Blob ID of NAME if ATTRS match its entry and the
+     * entry is not racy, or null otherwise. */
+    private String cached(String name, BasicFileAttributes attrs) {
+        Entry entry = entries.get(name);
+        if (entry != null && entry.matches(attrs) && entry.mtime < savedAt) {
+            Metrics.count("cache.stat.hit");
+            return entry.blobId;
+        }
+        Metrics.count("cache.stat.miss");
+        return null;
+    }
+
+    /** Returns the attributes of FILE, or null if it is not a plain file. */
+    private static BasicFileAttributes stat(File file) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return attrs.isRegularFile() ? attrs : null;
+        } catch (NoSuchFileException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Stat data and Blob ID of one file. */
+    private static class Entry {
+        final long mtime;
+        final long size;
+        final String fileKey;
+        final String blobId;
+
+        Entry(long mtime, long size, String fileKey, String blobId) {
+            this.mtime = mtime;
+            this.size = size;
+            this.fileKey = fileKey;
+            this.blobId = blobId;
+        }
+
+        Entry(BasicFileAttributes attrs, String blobId) {
+            this(attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS), attrs.size(),
+                 String.valueOf(attrs.fileKey()), blobId);
+        }
+
+        /** Returns true if ATTRS describe the same file as this entry. */
+        boolean matches(BasicFileAttributes attrs) {
+            return mtime == attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+                && size == attrs.size()
+                && fileKey.equals(String.valueOf(attrs.fileKey()));
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import static gitlet.Utils.*;
+
+/** Represents the transaction of one gitlet command. **
+ *
+ *  While a command runs, its writes of the repository state and of new
+ *  Commits, Trees, manifests and small Blobs are held in memory, so saving
+ *  the state several times costs nothing until the command ends. Readers
+ *  find held objects through read and exists as if they were saved. When
+ *  the command finishes, everything held is appended to the journal as
+ *  one record, and the journal is synced: that single fsync is the point
+ *  at which the command commits. The held files are then written over the
+ *  old ones through atomic renames, without syncing them.
+ *
+ *  The journal is a write-ahead log, so it keeps each record after its
+ *  files are written. Before the repository is loaded, any file that does
+ *  not match the latest copy the journal holds of it, as after a crash
+ *  that lost unsynced writes, is written again from the journal. A
+ *  record cut short by a crash, which never committed, is cut off. Once
+ *  the journal outgrows CHECKPOINT_BYTES, every file it names is synced
+ *  and the journal is emptied; pack and gc do the same before deleting
+ *  any loose object, so replaying never brings one back.
+ *
+ *  Each record is the length of its body as four bytes, then the body:
+ *  a format version byte and, for each file, its path relative to the
+ *  journal's directory as a varint-length UTF-8 string followed by a
+ *  varint length and the contents; then the SHA1 hash of the body. Blobs
+ *  and chunks too large to hold in memory are left out of the journal:
+ *  they are synced and renamed into place as they are saved, and their
+ *  directories are synced before the record is appended.
+ *
+ *  The commit graph and message index are appended to in place, as the
+ *  command reads them back. The length of each file before its first
+ *  append is remembered, and a failed command truncates it back, so the
+ *  graph and index never name Commits that were not saved.
+ *
+ *  A transaction may span several commands, as in a Batch, in which case
+ *  mark and rollback undo the held writes and appends of a single failed
+ *  command.
+ *  Outside of a transaction, as when the repository is driven directly
+ *  rather than through Main, writes go straight to their files.
+ *
+ *  @author Maxim Kirby
+ */
+class Transaction {
+    /***************************************************************************************************
+     INSTANCE VARIABLES */
+
+    /** Version of the binary encoding of journal records. */
+    private static final int FORMAT_VERSION = 2;
+
+    /** Number of bytes in the length before and the hash after a record. */
+    private static final int LENGTH_BYTES = 4;
+    private static final int HASH_BYTES = 20;
+
+    /** Size past which the journal is checkpointed after a commit. */
+    private static final long CHECKPOINT_BYTES = 256 * 1024;
+
+    /** Largest total size of the files held by one transaction. */
+    private static final long HOLD_BYTES = 16 * 1024 * 1024;
+
+    /** True while a transaction is open. */
+    private static boolean open;
+
+    /** Files whose writing waits for the end of the transaction, each with
+     * its contents. Objects held here are read from several threads. */
+    private static final Map<File, byte[]> HELD = new ConcurrentHashMap<>();
+
+    /** Total size of the held files. */
+    private static long heldBytes;
+
+    /** Held files as they were when mark was last called. */
+    private static final Map<File, byte[]> MARKED = new HashMap<>();
+
+    /** Files saved and synced outside the journal, whose directories are
+     * synced before the record is appended. */
+    private static final Set<File> SAVED = new LinkedHashSet<>();
+
+    /** Files appended to since the transaction began or mark was last
+     * called, each with its length before the first of those appends. */
+    private static final Map<File, Long> APPENDED = new LinkedHashMap<>();
+
+    /***************************************************************************************************
+     MAIN METHODS */
+
+    /** Opens a transaction for the command about to run. */
+    static synchronized void begin() {
+        clear();
+        open = true;
+    }
+
+    /** Returns true while a transaction is open. */
+    static synchronized boolean isOpen() {
+        return open;
+    }
+
+    /** Remembers the held writes so far, for rollback to return to. */
+    static synchronized void mark() {
+        MARKED.clear();
+        MARKED.putAll(HELD);
+        APPENDED.clear();
+    }
+
+    /** Drops the writes held since mark was last called and truncates the
+     * files appended to since then. */
+    static synchronized void rollback() {
+        HELD.clear();
+        HELD.putAll(MARKED);
+        heldBytes = 0;
+        for (byte[] contents : HELD.values()) {
+            heldBytes += contents.length;
+        }
+        truncateAppended();
+    }
+
+    /** Returns the contents of FILE, including a write held by the open
+     * transaction. */
+    static byte[] read(File file) {
+        byte[] contents = HELD.get(file);
+        return contents != null ? contents : readContents(file);
+    }
+
+    /** Returns the contents of FILE held by the open transaction, or null
+     * if it holds none. */
+    static byte[] held(File file) {
+        return HELD.get(file);
+    }
+
+    /** Returns true if FILE exists or is held by the open transaction. */
+    static boolean exists(File file) {
+        return HELD.containsKey(file) || file.isFile();
+    }
+
+    /** Returns the names of the files in DIR held by the open transaction. */
+    static synchronized List<String> heldIn(File dir) {
+        List<String> names = new ArrayList<>();
+        for (File file : HELD.keySet()) {
+            if (file.getParentFile().equals(dir)) {
+                names.add(file.getName());
+            }
+        }
+        return names;
+    }
+
+    /** Returns true if a file of SIZE bytes can still be held by the open
+     * transaction. */
+    static synchronized boolean canHold(long size) {
+        return open && heldBytes + size <= HOLD_BYTES;
+    }
+
+    /** Sets the contents of FILE to CONTENTS when the transaction commits,
+     * or at once if no transaction is open. Only the last contents given
+     * for a file are written. */
+    static synchronized void write(File file, byte[] contents) {
+        if (open) {
+            byte[] old = HELD.put(file, contents);
+            heldBytes += contents.length - (old == null ? 0 : old.length);
+        } else {
+            writeAtomically(file, contents, 0, contents.length);
+        }
+    }
+
+    /** Records that FILE, already synced, was renamed into place outside
+     * the journal, so that its directory is synced before the record is
+     * appended. Does nothing if no transaction is open. */
+    static synchronized void saved(File file) {
+        if (open) {
+            SAVED.add(file);
+        }
+    }
+
+    /** Records that FILE is about to be appended to, so that a failed
+     * command truncates it back to its current length. */
+    static synchronized void appending(File file) {
+        if (open && !APPENDED.containsKey(file)) {
+            APPENDED.put(file, file.length());
+        }
+    }
+
+    /** Commits the open transaction: syncs the directories of the files
+     * saved outside the journal, appends the held files to the journal and
+     * syncs it, then writes the held files. Does nothing beyond closing
+     * the transaction if nothing was written. */
+    static synchronized void commit() {
+        if (!open) {
+            return;
+        }
+        open = false;
+        if (HELD.isEmpty()) {
+            forceParents(SAVED);
+            clear();
+            return;
+        }
+        long start = Metrics.start();
+        forceParents(SAVED);
+        File journal = Repository.JOURNAL;
+        appendRecord(journal);
+        for (Map.Entry<File, byte[]> entry : HELD.entrySet()) {
+            writeAtomically(entry.getKey(), entry.getValue(), 0, entry.getValue().length);
+        }
+        if (journal.length() > CHECKPOINT_BYTES) {
+            checkpoint();
+        }
+        clear();
+        Metrics.time("journal", start);
+    }
+
+    /** Abandons the open transaction, dropping the held writes and
+     * truncating the files appended to since it began or mark was last
+     * called. */
+    static synchronized void abort() {
+        open = false;
+        truncateAppended();
+        clear();
+    }
+
+    /** Writes again every file whose contents differ from the latest copy
+     * the journal holds of it, and cuts off a record left incomplete by a
+     * crash. Called before the repository is loaded. */
+    static synchronized void recover() {
+        File journal = Repository.JOURNAL;
+        if (!journal.isFile()) {
+            return;
+        }
+        byte[] bytes = readContents(journal);
+        Map<File, int[]> files = new LinkedHashMap<>();
+        int end = readRecords(journal, bytes, files);
+        if (end < bytes.length) {
+            truncate(journal, end);
+        }
+        for (Map.Entry<File, int[]> entry : files.entrySet()) {
+            File file = entry.getKey();
+            int offset = entry.getValue()[0];
+            int length = entry.getValue()[1];
+            if (!matches(file, bytes, offset, length)) {
+                file.getParentFile().mkdirs();
+                writeAtomically(file, bytes, offset, length);
+                Metrics.count("journal.replayed");
+            }
+        }
+    }
+
+    /** Syncs every file named by the journal, then empties it, so that
+     * none of them is written again from it. */
+    static synchronized void checkpoint() {
+        File journal = Repository.JOURNAL;
+        if (!journal.isFile() || journal.length() == 0) {
+            return;
+        }
+        Map<File, int[]> files = new LinkedHashMap<>();
+        readRecords(journal, readContents(journal), files);
+        for (File file : files.keySet()) {
+            if (file.isFile()) {
+                force(file);
+            }
+        }
+        forceParents(files.keySet());
+        truncate(journal, 0);
+        force(journal);
+        Metrics.count("journal.checkpoints");
+    }
+
+    /***************************************************************************************************
+     HELPER METHODS */
+
+    /** Forgets everything held by the transaction. */
+    private static void clear() {
+        HELD.clear();
+        heldBytes = 0;
+        MARKED.clear();
+        SAVED.clear();
+        APPENDED.clear();
+    }
+
+    /** Truncates every file appended to back to its remembered length. */
+    private static void truncateAppended() {
+        for (Map.Entry<File, Long> entry : APPENDED.entrySet()) {
+            if (entry.getKey().isFile()) {
+                truncate(entry.getKey(), entry.getValue());
+            }
+        }
+        APPENDED.clear();
+    }
+
+    /** Truncates FILE to LENGTH bytes. */
+    private static void truncate(File file, long length) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Appends a record holding every held file to JOURNAL and syncs it,
+     * also syncing its directory if JOURNAL is new. */
+    private static void appendRecord(File journal) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(FORMAT_VERSION);
+        Path dir = journal.getParentFile().toPath();
+        for (Map.Entry<File, byte[]> entry : HELD.entrySet()) {
+            Path path = dir.relativize(entry.getKey().toPath().toAbsolutePath());
+            writeString(body, path.toString().replace(File.separatorChar, '/'));
+            writeVarint(body, entry.getValue().length);
+            body.writeBytes(entry.getValue());
+        }
+        byte[] bytes = body.toByteArray();
+
+        boolean created = !journal.exists();
+        try (FileChannel channel = FileChannel.open(journal.toPath(), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE,
+                                                    StandardOpenOption.APPEND)) {
+            ByteBuffer[] record = {
+                ByteBuffer.allocate(LENGTH_BYTES).putInt(0, bytes.length),
+                ByteBuffer.wrap(bytes),
+                ByteBuffer.wrap(digest(bytes, 0, bytes.length)),
+            };
+            while (record[2].hasRemaining()) {
+                channel.write(record);
+            }
+            channel.force(true);
+            Metrics.count("journal.fsyncs");
+            Metrics.count("journal.bytes", LENGTH_BYTES + bytes.length + HASH_BYTES);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (created) {
+            force(journal.getParentFile());
+        }
+    }
+
+    /** Reads the complete records at the start of BYTES, the contents of
+     * JOURNAL, adding to FILES the offset and length in BYTES of the latest
+     * copy of each file they hold. Returns the length of those records. */
+    private static int readRecords(File journal, byte[] bytes, Map<File, int[]> files) {
+        Path dir = journal.getParentFile().toPath();
+        int pos = 0;
+        while (bytes.length - pos >= LENGTH_BYTES) {
+            int start = pos + LENGTH_BYTES;
+            int length = ByteBuffer.wrap(bytes, pos, LENGTH_BYTES).getInt();
+            if (length <= 0 || length > bytes.length - start - HASH_BYTES
+                || bytes[start] != FORMAT_VERSION
+                || !Arrays.equals(digest(bytes, start, length), 0, HASH_BYTES,
+                                  bytes, start + length, start + length + HASH_BYTES)) {
+                break;
+            }
+            ByteBuffer in = ByteBuffer.wrap(bytes, start + 1, length - 1);
+            while (in.hasRemaining()) {
+                File file = dir.resolve(readString(in)).normalize().toFile();
+                int size = (int) readVarint(in);
+                files.put(file, new int[] {in.position(), size});
+                in.position(in.position() + size);
+            }
+            pos = start + length + HASH_BYTES;
+        }
+        return pos;
+    }
+
+    /** Returns true if FILE holds exactly the LENGTH bytes of BYTES
+     * starting at OFFSET. */
+    private static boolean matches(File file, byte[] bytes, int offset, int length) {
+        if (!file.isFile() || file.length() != length) {
+            return false;
+        }
+        return Arrays.equals(readContents(file), 0, length, bytes, offset, offset + length);
+    }
+
+    /** Returns the SHA1 hash of the LENGTH bytes of BYTES from OFFSET. */
+    private static byte[] digest(byte[] bytes, int offset, int length) {
+        MessageDigest md = sha1Digest();
+        md.update(bytes, offset, length);
+        return md.digest();
+    }
+}
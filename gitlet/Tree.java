@@ -0,0 +1,285 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import static gitlet.Utils.*;
+
+/** Represents a gitlet tree object. **
+ *
+ *  A tree records the contents of one directory: the Blob ID of each file
+ *  directly inside it and the tree ID of each subdirectory. Trees are
+ *  identified by the SHA1 hash of their encoding, so a directory whose
+ *  contents did not change keeps its ID and is shared by every Commit
+ *  that holds it. A Commit records only the ID of its root tree.
+ *
+ *  Making a Commit therefore writes new trees only along the paths of
+ *  changed files, and comparing two Commits skips every subdirectory
+ *  whose tree ID is the same on both sides. Paths are relative to the
+ *  root with '/' separators, and empty directories are never stored,
+ *  except for the empty root tree.
+ *
+ *  Trees are saved in a versioned binary encoding: a format version byte,
+ *  then counts followed by sorted entries for the files and for the
+ *  subdirectories, each a varint-length UTF-8 name and a raw 20-byte ID.
+ *
+ *  @author Maxim Kirby
+ */
+class Tree {
+    /***************************************************************************************************
+     INSTANCE VARIABLES */
+
+    /** Version of the binary encoding of trees. */
+    private static final int FORMAT_VERSION = 1;
+
+    /** The tree of an empty directory. */
+    static final Tree EMPTY = new Tree(new TreeMap<>(), new TreeMap<>());
+
+    /** Unique identifier for this tree. */
+    private final String id;
+
+    /** Mapping of file names to Blob IDs, and of subdirectory names to
+     * tree IDs, for the entries directly inside this directory. */
+    private final TreeMap<String, String> files;
+    private final TreeMap<String, String> trees;
+
+    /***************************************************************************************************
+     MAIN METHODS */
+
+    /** A tree holding FILES and the subdirectories TREES. */
+    Tree(TreeMap<String, String> files, TreeMap<String, String> trees) {
+        this.files = files;
+        this.trees = trees;
+        id = toHex(sha1Digest().digest(encode()));
+    }
+
+    /** A decoded tree with the given ID. */
+    private Tree(String id, TreeMap<String, String> files, TreeMap<String, String> trees) {
+        this.id = id;
+        this.files = files;
+        this.trees = trees;
+    }
+
+    /** Returns the ID of this tree. */
+    String getId() {
+        return id;
+    }
+
+    /** Returns the mapping of file names to Blob IDs. */
+    TreeMap<String, String> getFiles() {
+        return files;
+    }
+
+    /** Returns the mapping of subdirectory names to tree IDs. */
+    TreeMap<String, String> getTrees() {
+        return trees;
+    }
+
+    /** Returns the binary encoding of this tree. */
+    byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8 + 48 * (files.size() + trees.size()));
+        out.write(FORMAT_VERSION);
+        for (TreeMap<String, String> entries : List.of(files, trees)) {
+            writeVarint(out, entries.size());
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                writeString(out, entry.getKey());
+                writeId(out, entry.getValue());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns the tree with the given ID whose binary encoding is BYTES. */
+    static Tree decode(String id, byte[] bytes) {
+        Metrics.count("trees.decoded");
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (in.get() != FORMAT_VERSION) {
+            throw error("Unknown tree format.");
+        }
+        TreeMap<String, String> files = readEntries(in);
+        return new Tree(id, files, readEntries(in));
+    }
+
+    /***************************************************************************************************
+     OPERATIONS ON SAVED TREES */
+
+    /** Returns the ID of a root tree holding FILES, a mapping of paths to
+     * Blob IDs, saving every tree it needs in OBJECTS. */
+    static String write(ObjectStore objects, SortedMap<String, String> files) {
+        return update(objects, null, files, Collections.emptySortedSet());
+    }
+
+    /** Returns the ID of the root tree made by adding the files in ADD, a
+     * mapping of paths to Blob IDs, to the root tree ROOT (or to an empty
+     * one if ROOT is null) and removing the paths in RM. Only the trees
+     * along the changed paths are rebuilt and saved in OBJECTS. */
+    static String update(ObjectStore objects, String root, SortedMap<String, String> add,
+                         SortedSet<String> rm) {
+        Tree tree = root == null ? null : objects.getTree(root);
+        String id = rebuild(objects, tree, add, rm);
+        if (id == null) {
+            objects.putTree(EMPTY);
+            id = EMPTY.getId();
+        }
+        return id;
+    }
+
+    /** Returns the Blob ID of the file at PATH in the root tree ROOT, or
+     * null if there is none. Only the trees along PATH are read. */
+    static String lookup(ObjectStore objects, String root, String path) {
+        Tree tree = objects.getTree(root);
+        int start = 0;
+        int slash;
+        while ((slash = path.indexOf('/', start)) >= 0) {
+            String sub = tree.trees.get(path.substring(start, slash));
+            if (sub == null) {
+                return null;
+            }
+            tree = objects.getTree(sub);
+            start = slash + 1;
+        }
+        return tree.files.get(path.substring(start));
+    }
+
+    /** Returns a mapping of the path of every file in the root tree ROOT
+     * to its Blob ID. */
+    static TreeMap<String, String> flatten(ObjectStore objects, String root) {
+        TreeMap<String, String> result = new TreeMap<>();
+        flatten(objects, objects.getTree(root), "", result);
+        return result;
+    }
+
+    /** Returns the paths of files that differ between the root trees
+     * OLDROOT and NEWROOT, each mapped to its Blob ID in NEWROOT or to
+     * null if NEWROOT does not have it. Subdirectories with the same tree
+     * on both sides are skipped without being read. */
+    static TreeMap<String, String> diff(ObjectStore objects, String oldRoot, String newRoot) {
+        TreeMap<String, String> result = new TreeMap<>();
+        if (!oldRoot.equals(newRoot)) {
+            diff(objects, objects.getTree(oldRoot), objects.getTree(newRoot), "", result);
+        }
+        return result;
+    }
+
+    /***************************************************************************************************
+     HELPER METHODS */
+
+    /** Returns the ID of the tree made by applying ADD and RM, with paths
+     * relative to it, to TREE (or to an empty tree if it is null), saving
+     * it in OBJECTS. Returns null if the result is empty. */
+    private static String rebuild(ObjectStore objects, Tree tree, SortedMap<String, String> add,
+                                  SortedSet<String> rm) {
+        TreeMap<String, String> files = tree == null ? new TreeMap<>() : new TreeMap<>(tree.files);
+        TreeMap<String, String> trees = tree == null ? new TreeMap<>() : new TreeMap<>(tree.trees);
+
+        // Apply changes to files here, grouping the rest by subdirectory
+        TreeMap<String, TreeMap<String, String>> subAdd = new TreeMap<>();
+        TreeMap<String, TreeSet<String>> subRm = new TreeMap<>();
+        for (Map.Entry<String, String> entry : add.entrySet()) {
+            String path = entry.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                files.put(path, entry.getValue());
+            } else {
+                subAdd.computeIfAbsent(path.substring(0, slash), k -> new TreeMap<>())
+                      .put(path.substring(slash + 1), entry.getValue());
+            }
+        }
+        for (String path : rm) {
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                files.remove(path);
+            } else {
+                subRm.computeIfAbsent(path.substring(0, slash), k -> new TreeSet<>())
+                     .add(path.substring(slash + 1));
+            }
+        }
+
+        // Rebuild only the subdirectories that changed
+        TreeSet<String> changed = new TreeSet<>(subAdd.keySet());
+        changed.addAll(subRm.keySet());
+        for (String name : changed) {
+            String oldId = trees.get(name);
+            if (oldId == null && !subAdd.containsKey(name)) {
+                continue;
+            }
+            String newId = rebuild(objects, oldId == null ? null : objects.getTree(oldId),
+                                   subAdd.getOrDefault(name, new TreeMap<>()),
+                                   subRm.getOrDefault(name, new TreeSet<>()));
+            if (newId == null) {
+                trees.remove(name);
+            } else {
+                trees.put(name, newId);
+            }
+        }
+
+        if (files.isEmpty() && trees.isEmpty()) {
+            return null;
+        }
+        Tree result = new Tree(files, trees);
+        if (tree == null || !result.id.equals(tree.id)) {
+            objects.putTree(result);
+        }
+        return result.id;
+    }
+
+    /** Adds the files of TREE, with their paths prefixed by PREFIX, to RESULT. */
+    private static void flatten(ObjectStore objects, Tree tree, String prefix,
+                                TreeMap<String, String> result) {
+        for (Map.Entry<String, String> file : tree.files.entrySet()) {
+            result.put(prefix + file.getKey(), file.getValue());
+        }
+        for (Map.Entry<String, String> sub : tree.trees.entrySet()) {
+            flatten(objects, objects.getTree(sub.getValue()), prefix + sub.getKey() + "/", result);
+        }
+    }
+
+    /** Adds the files differing between OLDTREE and NEWTREE, either of
+     * which may be null, to RESULT with their paths prefixed by PREFIX. */
+    private static void diff(ObjectStore objects, Tree oldTree, Tree newTree, String prefix,
+                             TreeMap<String, String> result) {
+        TreeMap<String, String> oldFiles = oldTree == null ? new TreeMap<>() : oldTree.files;
+        TreeMap<String, String> newFiles = newTree == null ? new TreeMap<>() : newTree.files;
+        for (Map.Entry<String, String> file : oldFiles.entrySet()) {
+            if (!newFiles.containsKey(file.getKey())) {
+                result.put(prefix + file.getKey(), null);
+            }
+        }
+        for (Map.Entry<String, String> file : newFiles.entrySet()) {
+            if (!file.getValue().equals(oldFiles.get(file.getKey()))) {
+                result.put(prefix + file.getKey(), file.getValue());
+            }
+        }
+
+        TreeMap<String, String> oldTrees = oldTree == null ? new TreeMap<>() : oldTree.trees;
+        TreeMap<String, String> newTrees = newTree == null ? new TreeMap<>() : newTree.trees;
+        TreeSet<String> names = new TreeSet<>(oldTrees.keySet());
+        names.addAll(newTrees.keySet());
+        for (String name : names) {
+            String oldId = oldTrees.get(name);
+            String newId = newTrees.get(name);
+            if (!Objects.equals(oldId, newId)) {
+                diff(objects, oldId == null ? null : objects.getTree(oldId),
+                     newId == null ? null : objects.getTree(newId), prefix + name + "/", result);
+            }
+        }
+    }
+
+    /** Reads a count followed by that many sorted name and ID entries. */
+    private static TreeMap<String, String> readEntries(ByteBuffer in) {
+        TreeMap<String, String> entries = new TreeMap<>();
+        long count = readVarint(in);
+        for (long i = 0; i < count; i += 1) {
+            String name = readString(in);
+            entries.put(name, readId(in));
+        }
+        return entries;
+    }
+}
@@ -6,17 +6,26 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Formatter;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 
 /** Assorted utilities.
@@ -31,11 +40,15 @@ class Utils {
     /** The length of a complete SHA-1 UID as a hexadecimal numeral. */
     static final int UID_LENGTH = 40;
 
+    /** Size of the buffer used when streaming file contents. */
+    static final int BUFFER_SIZE = 64 * 1024;
+
     /* SHA-1 HASH VALUES. */
 
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
+        long start = Metrics.start();
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-1");
             for (Object val : vals) {
@@ -51,6 +64,7 @@ class Utils {
             for (byte b : md.digest()) {
                 result.format("%02x", b);
             }
+            Metrics.time("sha1", start);
             return result.toString();
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
@@ -63,6 +77,40 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns a fresh SHA-1 MessageDigest. */
+    static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns DIGEST as a lower-case hexadecimal numeral. */
+    static String toHex(byte[] digest) {
+        byte[] result = new byte[digest.length * 2];
+        for (int i = 0; i < digest.length; i += 1) {
+            result[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+            result[2 * i + 1] = HEX_DIGITS[digest[i] & 0xf];
+        }
+        return new String(result, StandardCharsets.ISO_8859_1);
+    }
+
+    /** Returns the bytes denoted by the hexadecimal numeral HEX, which must
+     *  have an even number of digits. */
+    static byte[] fromHex(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) ((Character.digit(hex.charAt(2 * i), 16) << 4)
+                                | Character.digit(hex.charAt(2 * i + 1), 16));
+        }
+        return result;
+    }
+
+    /** Lower-case hexadecimal digits as ASCII bytes, indexed by value. */
+    private static final byte[] HEX_DIGITS =
+        "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -98,7 +146,9 @@ class Utils {
             throw new IllegalArgumentException("must be a normal file");
         }
         try {
-            return Files.readAllBytes(file.toPath());
+            byte[] contents = Files.readAllBytes(file.toPath());
+            Metrics.count("io.readContents.bytes", contents.length);
+            return contents;
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -123,19 +173,127 @@ class Utils {
             }
             BufferedOutputStream str =
                 new BufferedOutputStream(Files.newOutputStream(file.toPath()));
+            long written = 0;
             for (Object obj : contents) {
-                if (obj instanceof byte[]) {
-                    str.write((byte[]) obj);
-                } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
-                }
+                byte[] bytes = obj instanceof byte[] ? (byte[]) obj
+                               : ((String) obj).getBytes(StandardCharsets.UTF_8);
+                str.write(bytes);
+                written += bytes.length;
             }
             str.close();
+            Metrics.count("io.writeContents.bytes", written);
         } catch (IOException | ClassCastException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
     }
 
+    /** Prefix of the temporary files written by writeAtomically. */
+    static final String TEMP_PREFIX = "tmp-";
+
+    /** Write LENGTH bytes of BUFFER starting at OFFSET to FILE through a
+     *  temporary file in the same directory that is then renamed over
+     *  FILE, so that readers see either the old contents or the new ones
+     *  and never a partly written file.  Nothing is synced, so the new
+     *  contents may be lost in a crash (see Transaction and writeDurably).
+     *  Throws IllegalArgumentException in case of problems. */
+    static void writeAtomically(File file, byte[] buffer, int offset, int length) {
+        writeAtomically(file, buffer, offset, length, false);
+    }
+
+    /** Write LENGTH bytes of BUFFER starting at OFFSET to FILE as
+     *  writeAtomically does, but sync the temporary file before the
+     *  rename, so that once the directory is synced as well (see
+     *  forceParents) the new contents survive a crash. */
+    static void writeDurably(File file, byte[] buffer, int offset, int length) {
+        writeAtomically(file, buffer, offset, length, true);
+    }
+
+    /** Write LENGTH bytes of BUFFER starting at OFFSET to FILE through a
+     *  renamed temporary file, syncing it first if SYNC. */
+    private static void writeAtomically(File file, byte[] buffer, int offset, int length,
+                                        boolean sync) {
+        File temp = null;
+        try {
+            temp = Files.createTempFile(file.getParentFile().toPath(), TEMP_PREFIX, null).toFile();
+            try (OutputStream out = Files.newOutputStream(temp.toPath())) {
+                out.write(buffer, offset, length);
+            }
+            if (sync) {
+                force(temp);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            Metrics.count("io.writeAtomically.bytes", length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /** Force the contents of FILE, which may be a directory, to disk.
+     *  Throws IllegalArgumentException in case of problems. */
+    static void force(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+            Metrics.count("io.fsyncs");
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Force the directories holding FILES to disk once each, so that the
+     *  renames that put the files in place survive a crash. */
+    static void forceParents(Collection<File> files) {
+        Set<File> dirs = new LinkedHashSet<>();
+        for (File file : files) {
+            dirs.add(file.getParentFile());
+        }
+        for (File dir : dirs) {
+            if (dir.isDirectory()) {
+                force(dir);
+            }
+        }
+    }
+
+    /** Copy all bytes of IN to OUT through a fixed-size buffer, also feeding
+     *  them to MD unless it is null.  Returns the number of bytes copied.
+     *  Neither stream is closed. */
+    static long copyStream(InputStream in, OutputStream out,
+                           MessageDigest md) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long total = 0;
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            if (md != null) {
+                md.update(buffer, 0, n);
+            }
+            if (out != null) {
+                out.write(buffer, 0, n);
+            }
+            total += n;
+        }
+        Metrics.count("io.copyStream.bytes", total);
+        return total;
+    }
+
+    /** Copy the contents of SOURCE to FILE, creating or overwriting it as
+     *  needed, without holding the whole file in memory.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static void copyContents(File source, File file) {
+        if (file.isDirectory()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
+        }
+        try (InputStream in = Files.newInputStream(source.toPath());
+             OutputStream out = Files.newOutputStream(file.toPath())) {
+            copyStream(in, out, null);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
@@ -220,7 +378,65 @@ class Utils {
         }
     }
 
+    /* VARIABLE-LENGTH INTEGERS */
+
+    /** Write the non-negative VALUE to OUT as a varint: seven bits per
+     *  byte, least significant group first, with the high bit of each byte
+     *  set when more bytes follow. */
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /** Return the varint read from the current position of IN. */
+    static long readVarint(ByteBuffer in) {
+        long result = 0;
+        int shift = 0;
+        while (true) {
+            int b = in.get();
+            result |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+            shift += 7;
+        }
+    }
 
+    /* BINARY ENCODING */
+
+    /** Write S to OUT as its varint length in bytes followed by its UTF-8
+     *  encoding. */
+    static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /** Return the string written by writeString at the current position
+     *  of IN. */
+    static String readString(ByteBuffer in) {
+        int length = (int) readVarint(in);
+        String s = new String(in.array(), in.arrayOffset() + in.position(), length,
+                              StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+    /** Write the hexadecimal ID to OUT as UID_LENGTH / 2 raw bytes. */
+    static void writeId(ByteArrayOutputStream out, String id) {
+        out.write(fromHex(id), 0, UID_LENGTH / 2);
+    }
+
+    /** Return the hexadecimal form of the raw ID at the current position
+     *  of IN. */
+    static String readId(ByteBuffer in) {
+        byte[] id = new byte[UID_LENGTH / 2];
+        in.get(id);
+        return toHex(id);
+    }
 
     /* MESSAGES AND ERROR REPORTING */
 
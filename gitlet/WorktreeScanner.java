@@ -0,0 +1,193 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import static gitlet.Utils.*;
+
+/** Represents a scan of the gitlet working directory. **
+ *
+ *  The scanner lists every file below the working directory, however deep,
+ *  outside of .gitlet and of anything matched by the rules in the
+ *  .gitletignore file at its top. Each directory is read by its own
+ *  fork/join task, which lists the directory's entries with
+ *  Files.walkFileTree one level deep and forks a task for each
+ *  subdirectory, so large trees are read across all cores. Ignored
+ *  directories are pruned before they are read.
+ *
+ *  Each line of .gitletignore is a glob pattern; blank lines and lines
+ *  starting with # are skipped. A pattern ending in / matches only
+ *  directories. A pattern containing a / (other than a trailing one) is
+ *  matched against the whole path from the top of the working directory,
+ *  and any other pattern against the name of a file or directory at any
+ *  depth. Ignoring a directory ignores everything below it.
+ *
+ *  @author Maxim Kirby
+ */
+class WorktreeScanner {
+    /***************************************************************************************************
+     INSTANCE VARIABLES */
+
+    /** Name of the file holding ignore rules, at the top of the working directory. */
+    static final String IGNORE_FILE = ".gitletignore";
+
+    /** Name of the gitlet directory, which is never scanned. */
+    private static final String GITLET_DIR_NAME = ".gitlet";
+
+    /** Top of the working directory. */
+    private final Path root;
+
+    /** Rules read from the ignore file. */
+    private final List<Rule> rules = new ArrayList<>();
+
+    /***************************************************************************************************
+     MAIN METHODS */
+
+    /** A scanner of the working directory ROOT, reading its ignore file if
+     * there is one. */
+    WorktreeScanner(File root) {
+        this.root = root.toPath().toAbsolutePath().normalize();
+        File ignoreFile = join(root, IGNORE_FILE);
+        if (ignoreFile.isFile()) {
+            for (String line : readContentsAsString(ignoreFile).split("\\R")) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    rules.add(new Rule(line));
+                }
+            }
+        }
+    }
+
+    /** Returns the names, relative to the top with '/' separators, of
+     * every file in the working directory that is not ignored, in order. */
+    List<String> scan() {
+        return scan(root);
+    }
+
+    /** Returns the names of every file that is not ignored below DIR, a
+     * directory within the working directory, in order. */
+    List<String> scan(Path dir) {
+        long start = Metrics.start();
+        List<String> files = ForkJoinPool.commonPool().invoke(
+                new DirectoryTask(dir.toAbsolutePath().normalize()));
+        Collections.sort(files);
+        Metrics.time("scan", start);
+        Metrics.count("scan.files", files.size());
+        return files;
+    }
+
+    /** Returns true if the file or directory NAME, relative to the top,
+     * is ignored. */
+    boolean isIgnored(String name, boolean directory) {
+        Path path = Paths.get(name);
+        Path last = path.getFileName();
+        for (Rule rule : rules) {
+            if ((directory || !rule.directoryOnly)
+                    && rule.matcher.matches(rule.anchored ? path : last)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /***************************************************************************************************
+     HELPER METHODS */
+
+    /** Returns the name of PATH relative to the top, with '/' separators. */
+    private String relativeName(Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    /** One rule of the ignore file. */
+    private static class Rule {
+
+        /** Matcher of the rule's glob pattern. */
+        private final PathMatcher matcher;
+
+        /** True if the rule only matches directories. */
+        private final boolean directoryOnly;
+
+        /** True if the rule matches whole paths rather than names. */
+        private final boolean anchored;
+
+        /** The rule written as PATTERN in the ignore file. */
+        Rule(String pattern) {
+            directoryOnly = pattern.endsWith("/");
+            if (directoryOnly) {
+                pattern = pattern.substring(0, pattern.length() - 1);
+            }
+            anchored = pattern.contains("/");
+            if (pattern.startsWith("/")) {
+                pattern = pattern.substring(1);
+            }
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        }
+    }
+
+    /** A fork/join task listing the files below one directory. */
+    private class DirectoryTask extends RecursiveTask<List<String>> {
+
+        /** Serialization version; gitlet never serializes this class. */
+        private static final long serialVersionUID = 1L;
+
+        /** Directory read by this task. */
+        private final Path dir;
+
+        DirectoryTask(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected List<String> compute() {
+            List<String> files = new ArrayList<>();
+            List<DirectoryTask> subdirs = new ArrayList<>();
+            try {
+                Files.walkFileTree(dir, EnumSet.noneOf(FileVisitOption.class), 1,
+                                   new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                        String name = relativeName(path);
+                        if (attrs.isDirectory()) {
+                            if (!name.equals(GITLET_DIR_NAME) && !isIgnored(name, true)) {
+                                subdirs.add(new DirectoryTask(path));
+                            }
+                        } else if ((attrs.isRegularFile()
+                                    || attrs.isSymbolicLink() && Files.isRegularFile(path))
+                                   && !isIgnored(name, false)) {
+                            files.add(name);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path path, IOException excp) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+
+            // Read subdirectories in parallel
+            invokeAll(subdirs);
+            for (DirectoryTask subdir : subdirs) {
+                files.addAll(subdir.join());
+            }
+            return files;
+        }
+    }
+}